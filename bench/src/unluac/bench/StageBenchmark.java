@@ -0,0 +1,205 @@
+package unluac.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import unluac.Configuration;
+import unluac.assemble.Assembler;
+import unluac.assemble.AssemblerException;
+import unluac.decompile.Decompiler;
+import unluac.decompile.Disassembler;
+import unluac.decompile.Output;
+import unluac.decompile.OutputProvider;
+import unluac.parse.BHeader;
+import unluac.parse.LFunction;
+
+/**
+ * Times each stage of unluac on one chunk of the corpus in bench/chunks.
+ * The chunks were assembled from Generator listings (size 1000, depth 2,
+ * fanout 3, seed 1), one for each Lua version. Run with "gradle jmh", which
+ * adds -prof gc for the allocated bytes per op.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StageBenchmark {
+
+  @Param({"lua50", "lua51", "lua52", "lua53", "lua54"})
+  public String chunk;
+
+  private Configuration config;
+  private byte[] bytes;
+  private LFunction main;
+  private byte[] listing;
+
+  @Setup(Level.Trial)
+  public void load() throws IOException {
+    config = new Configuration();
+    bytes = read(chunk + ".luac");
+    main = parse();
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new Disassembler(main).disassemble(new Output(new OutputProvider() {
+
+      @Override
+      public void print(String s) {
+        for(int i = 0; i < s.length(); i++) {
+          out.write(s.charAt(i));
+        }
+      }
+
+      @Override
+      public void print(byte b) {
+        out.write(b);
+      }
+
+      @Override
+      public void print(byte[] bytes, int offset, int length) {
+        out.write(bytes, offset, length);
+      }
+
+      @Override
+      public void println() {
+        out.write('\n');
+      }
+
+      @Override
+      public void flush() {
+      }
+
+    }));
+    listing = out.toByteArray();
+  }
+
+  /**
+   * Printing consumes the decompiled state, so each print gets a fresh one.
+   */
+  @State(Scope.Thread)
+  public static class Decompiled {
+
+    Decompiler decompiler;
+    Decompiler.State state;
+
+    @Setup(Level.Invocation)
+    public void decompile(StageBenchmark benchmark) {
+      decompiler = new Decompiler(benchmark.main);
+      state = decompiler.decompile();
+    }
+
+  }
+
+  @Benchmark
+  public LFunction parse() {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    return new BHeader(buffer, config).main;
+  }
+
+  @Benchmark
+  public Decompiler.State decompile() {
+    return new Decompiler(main).decompile();
+  }
+
+  @Benchmark
+  public void print(Decompiled decompiled, Blackhole blackhole) {
+    decompiled.decompiler.print(decompiled.state, new BlackholeOutputProvider(blackhole));
+  }
+
+  @Benchmark
+  public void disassemble(Blackhole blackhole) {
+    new Disassembler(main).disassemble(new Output(new BlackholeOutputProvider(blackhole)));
+  }
+
+  @Benchmark
+  public void assemble(Blackhole blackhole) throws IOException, AssemblerException {
+    new Assembler(config, new ByteArrayInputStream(listing), new BlackholeOutputStream(blackhole)).assemble();
+  }
+
+  private static byte[] read(String name) throws IOException {
+    InputStream in = StageBenchmark.class.getResourceAsStream("/" + name);
+    if(in == null) {
+      throw new IllegalStateException("missing benchmark chunk " + name);
+    }
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int n;
+      while((n = in.read(buffer)) != -1) {
+        out.write(buffer, 0, n);
+      }
+      return out.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+
+  private static class BlackholeOutputProvider implements OutputProvider {
+
+    private final Blackhole blackhole;
+
+    BlackholeOutputProvider(Blackhole blackhole) {
+      this.blackhole = blackhole;
+    }
+
+    @Override
+    public void print(String s) {
+      blackhole.consume(s);
+    }
+
+    @Override
+    public void print(byte b) {
+      blackhole.consume(b);
+    }
+
+    @Override
+    public void print(byte[] bytes, int offset, int length) {
+      blackhole.consume(bytes);
+    }
+
+    @Override
+    public void println() {
+    }
+
+    @Override
+    public void flush() {
+    }
+
+  }
+
+  private static class BlackholeOutputStream extends OutputStream {
+
+    private final Blackhole blackhole;
+
+    BlackholeOutputStream(Blackhole blackhole) {
+      this.blackhole = blackhole;
+    }
+
+    @Override
+    public void write(int b) {
+      blackhole.consume(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      blackhole.consume(b);
+    }
+
+  }
+
+}
@@ -0,0 +1,186 @@
+package unluac;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import unluac.decompile.BufferedOutputProvider;
+import unluac.decompile.OutputProvider;
+import unluac.decompile.PrototypeCache;
+
+/**
+ * Decompiles every file under an input directory into a mirrored output
+ * directory, sharing one JVM and a work-stealing pool across all chunks.
+ * A nested function that appears in several chunks (library code compiled
+ * into each of them, say) is decompiled once and its text reused.
+ */
+public class Batch {
+
+  private final Configuration config;
+  private final File indir;
+  private final File outdir;
+  private final PrintStream log;
+  private final ResultCache cache;
+  private final PrototypeCache prototypes = new PrototypeCache(PrototypeCache.DEFAULT_LIMIT);
+  private final AtomicInteger succeeded = new AtomicInteger();
+  private final AtomicInteger failed = new AtomicInteger();
+
+  public Batch(Configuration config, File indir, File outdir, PrintStream log) {
+    this.config = new Configuration(config);
+    this.config.function = null;
+    this.indir = indir;
+    this.outdir = outdir;
+    this.log = log;
+    cache = config.cache != null ? ResultCache.open(new File(config.cache), config.cache_limit) : null;
+  }
+
+  public boolean run() {
+    List<String> files = new ArrayList<String>();
+    collect(indir, "", files);
+    files = remove_collisions(files);
+    long start = System.nanoTime();
+    ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    try {
+      pool.invoke(new Task(files, 0, files.size()));
+    } finally {
+      pool.shutdown();
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    int total = succeeded.get() + failed.get();
+    log.println(String.format("%d files, %d failed, %.2f s (%.1f files/s)", total, failed.get(), seconds, seconds > 0 ? total / seconds : 0.0));
+    return failed.get() == 0;
+  }
+
+  public int succeeded() {
+    return succeeded.get();
+  }
+
+  public int failed() {
+    return failed.get();
+  }
+
+  private static void collect(File dir, String prefix, List<String> files) {
+    String[] names = dir.list();
+    if(names == null) return;
+    Arrays.sort(names);
+    for(String name : names) {
+      File file = new File(dir, name);
+      if(file.isDirectory()) {
+        collect(file, prefix + name + File.separator, files);
+      } else if(file.isFile()) {
+        files.add(prefix + name);
+      }
+    }
+  }
+
+  private static String output_name(String path) {
+    int slash = path.lastIndexOf(File.separatorChar);
+    int dot = path.lastIndexOf('.');
+    if(dot > slash + 1) {
+      path = path.substring(0, dot);
+    }
+    return path + ".lua";
+  }
+
+  /**
+   * Inputs that differ only in their extension (a.luac and a.out) would be
+   * written to the same output file. Each of them is reported as a failure
+   * and skipped, rather than letting whichever finishes last win.
+   */
+  private List<String> remove_collisions(List<String> files) {
+    Map<String, List<String>> outputs = new LinkedHashMap<String, List<String>>();
+    for(String path : files) {
+      String output = output_name(path);
+      List<String> inputs = outputs.get(output);
+      if(inputs == null) {
+        inputs = new ArrayList<String>(1);
+        outputs.put(output, inputs);
+      }
+      inputs.add(path);
+    }
+    List<String> unique = new ArrayList<String>(files.size());
+    for(Map.Entry<String, List<String>> entry : outputs.entrySet()) {
+      List<String> inputs = entry.getValue();
+      if(inputs.size() == 1) {
+        unique.add(inputs.get(0));
+      } else {
+        for(String path : inputs) {
+          fail(path, "output " + entry.getKey() + " would be shared by " + inputs.size() + " inputs: " + inputs);
+        }
+      }
+    }
+    return unique;
+  }
+
+  private void process(String path) {
+    try {
+      File out = new File(outdir, output_name(path));
+      File parent = out.getParentFile();
+      if(parent != null && !parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+        throw new IOException("couldn't create directory " + parent);
+      }
+      ByteBuffer chunk = Main.map_file(new File(indir, path).getPath());
+      FileOutputStream stream = new FileOutputStream(out);
+      try {
+        OutputProvider output = new BufferedOutputProvider(stream.getChannel());
+        Main.process(chunk, config, cache, prototypes, output);
+        output.flush();
+      } finally {
+        stream.close();
+      }
+      succeeded.incrementAndGet();
+    } catch(Exception e) {
+      fail(path, e);
+    } catch(StackOverflowError e) {
+      fail(path, e);
+    }
+  }
+
+  private void fail(String path, Throwable e) {
+    fail(path, e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+  }
+
+  private void fail(String path, String message) {
+    failed.incrementAndGet();
+    synchronized(log) {
+      log.println("  failed: " + path + ": " + message);
+    }
+  }
+
+  private class Task extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<String> files;
+    private final int begin;
+    private final int end;
+
+    Task(List<String> files, int begin, int end) {
+      this.files = files;
+      this.begin = begin;
+      this.end = end;
+    }
+
+    @Override
+    protected void compute() {
+      if(end - begin == 1) {
+        process(files.get(begin));
+      } else if(end - begin > 1) {
+        int mid = (begin + end) >>> 1;
+        invokeAll(new Task(files, begin, mid), new Task(files, mid, end));
+      }
+    }
+
+  }
+
+}
@@ -1,10 +1,12 @@
 package unluac;
 
+import java.io.FileDescriptor;
 import java.io.FileOutputStream;
 import java.io.IOException;
 
-import unluac.decompile.FileOutputProvider;
+import unluac.decompile.BufferedOutputProvider;
 import unluac.decompile.Output;
+import unluac.decompile.OutputProvider;
 
 public class Configuration {
 
@@ -12,6 +14,8 @@ public class Configuration {
     DECOMPILE,
     DISASSEMBLE,
     ASSEMBLE,
+    BATCH,
+    SERVER,
     HELP,
     VERSION,
   }
@@ -27,7 +31,14 @@ public class Configuration {
   public VariableMode variable;
   public boolean strict_scope;
   public boolean luaj;
+  public boolean parallel;
+  public boolean lazy;
   public String opmap;
+  public String function;
+  public String cache;
+  public long cache_limit;
+  public String stats;
+  public int port;
   public String output;
   
   public Configuration() {
@@ -36,7 +47,14 @@ public class Configuration {
     variable = VariableMode.DEFAULT;
     strict_scope = false;
     luaj = false;
+    parallel = false;
+    lazy = false;
     opmap = null;
+    function = null;
+    cache = null;
+    cache_limit = ResultCache.DEFAULT_LIMIT;
+    stats = null;
+    port = 0;
     output = null;
   }
   
@@ -45,20 +63,32 @@ public class Configuration {
     mode = other.mode;
     variable = other.variable;
     strict_scope = other.strict_scope;
+    luaj = other.luaj;
+    parallel = other.parallel;
+    lazy = other.lazy;
     opmap = other.opmap;
+    function = other.function;
+    cache = other.cache;
+    cache_limit = other.cache_limit;
+    stats = other.stats;
+    port = other.port;
     output = other.output;
   }
   
   public Output getOutput() {
+    return new Output(getOutputProvider());
+  }
+  
+  public OutputProvider getOutputProvider() {
     if(output != null) {
       try {
-        return new Output(new FileOutputProvider(new FileOutputStream(output)));
+        return new BufferedOutputProvider(new FileOutputStream(output).getChannel());
       } catch(IOException e) {
         Main.error(e.getMessage(), false);
         return null;
       }
     } else {
-      return new Output();
+      return new BufferedOutputProvider(new FileOutputStream(FileDescriptor.out).getChannel(), true);
     }
   }
   
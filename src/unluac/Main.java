@@ -10,14 +10,17 @@ import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
+import java.util.concurrent.ForkJoinPool;
 
 import unluac.Configuration.Mode;
 import unluac.assemble.Assembler;
 import unluac.assemble.AssemblerException;
+import unluac.decompile.BufferedOutputProvider;
 import unluac.decompile.Decompiler;
 import unluac.decompile.Disassembler;
 import unluac.decompile.Output;
 import unluac.decompile.OutputProvider;
+import unluac.decompile.PrototypeCache;
 import unluac.parse.BHeader;
 import unluac.parse.LFunction;
 import unluac.util.FileUtils;
@@ -29,48 +32,12 @@ public class Main {
   public static void main(String[] args) {
     String fn = null;
     Configuration config = new Configuration();
-    for(int i = 0; i < args.length; i++) {
-      String arg = args[i];
-      if(arg.startsWith("-")) {
-        // option
-        if(arg.equals("--rawstring")) {
-          config.rawstring = true;
-        } else if(arg.equals("--luaj")) {
-          config.luaj = true;
-        } else if(arg.equals("--nodebug")) {
-          config.variable = Configuration.VariableMode.NODEBUG;
-        } else if(arg.equals("--disassemble")) {
-          config.mode = Mode.DISASSEMBLE;
-        } else if(arg.equals("--assemble")) {
-          config.mode = Mode.ASSEMBLE;
-        } else if(arg.equals("--help")) {
-          config.mode = Mode.HELP;
-        } else if(arg.equals("--version")) {
-          config.mode = Mode.VERSION;
-        } else if(arg.equals("--output") || arg.equals("-o")) {
-          if(i + 1 < args.length) {
-            config.output = args[i + 1];
-            i++;
-          } else {
-            error("option \"" + arg + "\" doesn't have an argument", true);
-          }
-        } else if(arg.equals("--opmap")) {
-          if(i + 1 < args.length) {
-            config.opmap = args[i + 1];
-            i++;
-          } else {
-            error("option \"" + arg + "\" doesn't have an argument", true);
-          }
-        } else {
-          error("unrecognized option: " + arg, true);
-        }
-      } else if(fn == null) {
-        fn = arg;
-      } else {
-        error("too many arguments: " + arg, true);
-      }
+    try {
+      fn = parse_arguments(args, config);
+    } catch(IllegalArgumentException e) {
+      error(e.getMessage(), true);
     }
-    if(fn == null && config.mode != Mode.HELP && config.mode != Mode.VERSION) {
+    if(fn == null && config.mode != Mode.HELP && config.mode != Mode.VERSION && config.mode != Mode.SERVER) {
       error("no input file provided", true);
     } else {
       switch(config.mode) {
@@ -80,27 +47,55 @@ public class Main {
       case VERSION:
         System.out.println(version);
         break;
-      case DECOMPILE: {
-        LFunction lmain = null;
+      case DECOMPILE:
+      case DISASSEMBLE: {
+        ByteBuffer chunk = null;
         try {
-          lmain = file_to_function(fn, config);
+          chunk = map_file(fn);
         } catch(IOException e) {
           error(e.getMessage(), false);
         }
-        Decompiler d = new Decompiler(lmain);
-        Decompiler.State result = d.decompile();
-        d.print(result, config.getOutput());
+        ResultCache cache = config.cache != null ? ResultCache.open(new File(config.cache), config.cache_limit) : null;
+        OutputProvider out = config.getOutputProvider();
+        try {
+          process(chunk, config, cache, out);
+          out.flush();
+        } catch(IOException e) {
+          error(e.getMessage(), false);
+        } catch(IllegalArgumentException e) {
+          error(e.getMessage(), false);
+        } catch(BufferedOutputProvider.WriteException e) {
+          // a reader that stopped early is not an error
+          if(!e.isClosed()) {
+            error(e.getMessage(), false);
+          }
+        } catch(RuntimeException e) {
+          // keep the output up to the failure
+          try {
+            out.flush();
+          } catch(BufferedOutputProvider.WriteException x) {
+            // report the original failure instead
+          }
+          throw e;
+        }
         break;
       }
-      case DISASSEMBLE: {
-        LFunction lmain = null;
+      case SERVER: {
         try {
-          lmain = file_to_function(fn, config);
+          new Server(config, System.err).run();
         } catch(IOException e) {
           error(e.getMessage(), false);
         }
-        Disassembler d = new Disassembler(lmain);
-        d.disassemble(config.getOutput());
+        break;
+      }
+      case BATCH: {
+        if(config.stats != null) {
+          error("option \"--stats\" is not supported in batch mode", true);
+        }
+        Batch batch = new Batch(config, new File(fn), new File(config.output), System.err);
+        if(!batch.run()) {
+          System.exit(1);
+        }
         break;
       }
       case ASSEMBLE: {
@@ -129,6 +124,114 @@ public class Main {
     }
   }
   
+  /**
+   * Applies command line options to the configuration and returns the input
+   * file name, or null if there is none. Bad arguments are reported with an
+   * IllegalArgumentException.
+   */
+  static String parse_arguments(String[] args, Configuration config) {
+    String fn = null;
+    for(int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if(arg.startsWith("-")) {
+        // option
+        if(arg.equals("--rawstring")) {
+          config.rawstring = true;
+        } else if(arg.equals("--luaj")) {
+          config.luaj = true;
+        } else if(arg.equals("--parallel")) {
+          config.parallel = true;
+        } else if(arg.equals("--lazy")) {
+          config.lazy = true;
+        } else if(arg.equals("--nodebug")) {
+          config.variable = Configuration.VariableMode.NODEBUG;
+        } else if(arg.equals("--disassemble")) {
+          config.mode = Mode.DISASSEMBLE;
+        } else if(arg.equals("--assemble")) {
+          config.mode = Mode.ASSEMBLE;
+        } else if(arg.equals("--batch")) {
+          if(i + 2 < args.length) {
+            config.mode = Mode.BATCH;
+            fn = args[i + 1];
+            config.output = args[i + 2];
+            i += 2;
+          } else {
+            throw new IllegalArgumentException("option \"" + arg + "\" requires an input and an output directory");
+          }
+        } else if(arg.equals("--server")) {
+          if(i + 1 < args.length) {
+            config.mode = Mode.SERVER;
+            try {
+              config.port = Integer.parseInt(args[i + 1]);
+            } catch(NumberFormatException e) {
+              throw new IllegalArgumentException("option \"" + arg + "\" expects a port number");
+            }
+            i++;
+          } else {
+            throw new IllegalArgumentException("option \"" + arg + "\" doesn't have an argument");
+          }
+        } else if(arg.equals("--help")) {
+          config.mode = Mode.HELP;
+        } else if(arg.equals("--version")) {
+          config.mode = Mode.VERSION;
+        } else if(arg.equals("--output") || arg.equals("-o")) {
+          if(i + 1 < args.length) {
+            config.output = args[i + 1];
+            i++;
+          } else {
+            throw new IllegalArgumentException("option \"" + arg + "\" doesn't have an argument");
+          }
+        } else if(arg.equals("--function")) {
+          if(i + 1 < args.length) {
+            config.function = args[i + 1];
+            i++;
+          } else {
+            throw new IllegalArgumentException("option \"" + arg + "\" doesn't have an argument");
+          }
+        } else if(arg.equals("--cache")) {
+          if(i + 1 < args.length) {
+            config.cache = args[i + 1];
+            i++;
+          } else {
+            throw new IllegalArgumentException("option \"" + arg + "\" doesn't have an argument");
+          }
+        } else if(arg.equals("--cache-limit")) {
+          if(i + 1 < args.length) {
+            try {
+              config.cache_limit = Long.parseLong(args[i + 1]) << 20;
+            } catch(NumberFormatException e) {
+              throw new IllegalArgumentException("option \"" + arg + "\" expects a size in megabytes");
+            }
+            i++;
+          } else {
+            throw new IllegalArgumentException("option \"" + arg + "\" doesn't have an argument");
+          }
+        } else if(arg.equals("--stats")) {
+          if(i + 1 < args.length) {
+            config.stats = args[i + 1];
+            i++;
+          } else {
+            throw new IllegalArgumentException("option \"" + arg + "\" doesn't have an argument");
+          }
+        } else if(arg.equals("--opmap")) {
+          if(i + 1 < args.length) {
+            config.opmap = args[i + 1];
+            i++;
+          } else {
+            throw new IllegalArgumentException("option \"" + arg + "\" doesn't have an argument");
+          }
+        } else {
+          throw new IllegalArgumentException("unrecognized option: " + arg);
+        }
+      } else if(fn == null) {
+        fn = arg;
+      } else {
+        throw new IllegalArgumentException("too many arguments: " + arg);
+      }
+    }
+    return fn;
+  }
+  
   public static void error(String err, boolean usage) {
     print_unluac_string(System.err);
     System.err.print("  error: ");
@@ -145,11 +248,19 @@ public class Main {
     print_usage(System.out);
     System.out.println("Available options are:");
     System.out.println("  --assemble       assemble given disassembly listing");
+    System.out.println("  --batch <in> <out>  decompile every file under <in> into <out>");
+    System.out.println("  --cache <dir>    reuse earlier output for identical input, stored in <dir>");
+    System.out.println("  --cache-limit <mb>  keep the cache under <mb> megabytes (default 256)");
     System.out.println("  --disassemble    disassemble instead of decompile");
+    System.out.println("  --function <path>  only process the function at <path>, e.g. main/f3/f1");
+    System.out.println("  --lazy           parse nested functions only when first used");
     System.out.println("  --nodebug        ignore debugging information in input file");
     System.out.println("  --opmap <file>   use opcode mapping specified in <file>");
     System.out.println("  --output <file>  output to <file> instead of stdout");
+    System.out.println("  --parallel       decompile nested functions in parallel");
     System.out.println("  --rawstring      copy string bytes directly to output");
+    System.out.println("  --server <port>  serve requests on a localhost port (0 picks a free one)");
+    System.out.println("  --stats <file>   write per-phase timings for each function to <file> as JSON");
     System.out.println("  --luaj           emulate Luaj's permissive parser");
   }
   
@@ -161,18 +272,118 @@ public class Main {
     out.println("  usage: java -jar unluac.jar [options] <file>");
   }
   
-  private static LFunction file_to_function(String fn, Configuration config) throws IOException {
+  /**
+   * Converts a function path as printed by the disassembler, such as
+   * "main/f3/f1", to the child indices along it.
+   */
+  private static int[] function_path(String path) {
+    String[] parts = path.split("/", -1);
+    if(!parts[0].equals("main")) {
+      throw new IllegalArgumentException("function path must start with \"main\": " + path);
+    }
+    int[] indices = new int[parts.length - 1];
+    for(int i = 1; i < parts.length; i++) {
+      String part = parts[i];
+      if(part.length() < 2 || part.charAt(0) != 'f') {
+        throw new IllegalArgumentException("malformed function path: " + path);
+      }
+      try {
+        indices[i - 1] = Integer.parseInt(part.substring(1));
+      } catch(NumberFormatException e) {
+        throw new IllegalArgumentException("malformed function path: " + path);
+      }
+      if(indices[i - 1] < 0) {
+        throw new IllegalArgumentException("malformed function path: " + path);
+      }
+    }
+    return indices;
+  }
+  
+  /**
+   * Decompiles or disassembles a chunk, according to the configuration. With
+   * a cache, output stored for the same input is copied instead, and new
+   * output is stored once it is complete. The cache is not used when
+   * statistics are requested, as there would be nothing to measure.
+   */
+  static void process(ByteBuffer chunk, Configuration config, ResultCache cache, OutputProvider provider) throws IOException {
+    process(chunk, config, cache, null, provider);
+  }
+  
+  /**
+   * As above, but also sharing the decompiled nested functions with other
+   * chunks processed through the same PrototypeCache.
+   */
+  static void process(ByteBuffer chunk, Configuration config, ResultCache cache, PrototypeCache prototypes, OutputProvider provider) throws IOException {
+    ResultCache.Entry entry = null;
+    if(cache != null && config.stats == null) {
+      String key = ResultCache.key(chunk, config);
+      if(cache.fetch(key, provider)) {
+        return;
+      }
+      entry = cache.store(key, provider);
+      provider = entry;
+    }
+    try {
+      Output out = new Output(provider);
+      LFunction lmain = buffer_to_function(chunk, config);
+      if(config.mode == Mode.DISASSEMBLE) {
+        Disassembler d;
+        if(config.function != null) {
+          LFunction function = lmain;
+          for(int index : function_path(config.function)) {
+            if(index >= function.functions.length) {
+              throw new IllegalArgumentException("no function \"" + config.function + "\" in input file");
+            }
+            function = function.getFunction(index);
+          }
+          d = new Disassembler(function, config.function);
+        } else {
+          d = new Disassembler(lmain);
+        }
+        Stats.Timer timer = lmain.header.stats != null ? lmain.header.stats.begin(null, "disassemble") : null;
+        d.disassemble(out);
+        if(timer != null) {
+          lmain.header.stats.end(timer);
+        }
+      } else {
+        Decompiler d = new Decompiler(lmain);
+        d.setPrototypeCache(prototypes);
+        if(config.function != null) {
+          for(int index : function_path(config.function)) {
+            if(index >= d.function.functions.length) {
+              throw new IllegalArgumentException("no function \"" + config.function + "\" in input file");
+            }
+            d = d.getNested(index);
+          }
+        }
+        Decompiler.State result = config.parallel ? d.decompileAll(ForkJoinPool.commonPool()) : d.decompile();
+        if(d.function != lmain) {
+          d.printFunction(result, out);
+        } else {
+          d.print(result, out);
+        }
+      }
+      if(entry != null) {
+        entry.commit();
+      }
+      if(lmain.header.stats != null) {
+        PrintStream stats = new PrintStream(config.stats);
+        lmain.header.stats.print(stats, lmain);
+        stats.close();
+      }
+    } finally {
+      if(entry != null) {
+        entry.abort();
+      }
+    }
+  }
+  
+  static ByteBuffer map_file(String fn) throws IOException {
     RandomAccessFile file = null;
     try {
       file = new RandomAccessFile(fn, "r");
-      ByteBuffer buffer = ByteBuffer.allocate((int) file.length());
-      buffer.order(ByteOrder.LITTLE_ENDIAN);
-      int len = (int) file.length();
       FileChannel in = file.getChannel();
-      while(len > 0) len -= in.read(buffer);
-      buffer.rewind();
-      BHeader header = new BHeader(buffer, config);
-      return header.main;
+      return in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
     } finally {
       if(file != null) {
         file.close();
@@ -180,6 +391,22 @@ public class Main {
     }
   }
   
+  static LFunction file_to_function(String fn, Configuration config) throws IOException {
+    return buffer_to_function(map_file(fn), config);
+  }
+  
+  /**
+   * Parses a chunk starting at the buffer's current position. The buffer may
+   * be direct, mapped, or a slice of a larger bundle; it is read in place and
+   * the caller's position and byte order are left untouched.
+   */
+  public static LFunction buffer_to_function(ByteBuffer buffer, Configuration config) {
+    ByteBuffer chunk = buffer.slice();
+    chunk.order(ByteOrder.LITTLE_ENDIAN);
+    BHeader header = new BHeader(chunk, config);
+    return header.main;
+  }
+  
   public static void decompile(String in, String out, Configuration config) throws IOException {
     LFunction lmain = file_to_function(in, config);
     Decompiler d = new Decompiler(lmain);
@@ -196,12 +423,22 @@ public class Main {
       public void print(byte b) {
         pout.write(b);
       }
+      
+      @Override
+      public void print(byte[] bytes, int offset, int length) {
+        pout.write(bytes, offset, length);
+      }
 
       @Override
       public void println() {
         pout.println();
       }
       
+      @Override
+      public void flush() {
+        pout.flush();
+      }
+      
     }));
     pout.flush();
     pout.close();
@@ -230,12 +467,22 @@ public class Main {
       public void print(byte b) {
         pout.print(b);
       }
+      
+      @Override
+      public void print(byte[] bytes, int offset, int length) {
+        pout.write(bytes, offset, length);
+      }
 
       @Override
       public void println() {
         pout.println();
       }
       
+      @Override
+      public void flush() {
+        pout.flush();
+      }
+      
     }));
     pout.flush();
     pout.close();
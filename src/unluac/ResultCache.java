@@ -0,0 +1,318 @@
+package unluac;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import unluac.decompile.BufferedOutputProvider;
+import unluac.decompile.OutputProvider;
+
+/**
+ * A directory of previous outputs, keyed by a hash of the input chunk, the
+ * options that affect the output, and the unluac version. The directory is
+ * kept under a size limit by removing the least recently used entries.
+ * Only files named like keys count as entries; anything else in the
+ * directory, including entries still being written, is left alone.
+ * Failures to read or write the cache are never fatal; they just count as a
+ * miss.
+ * <p>
+ * The size of the directory is tracked as entries are added, and only
+ * rescanned when that goes over the limit, so space used by other processes
+ * sharing the directory is noticed late.
+ */
+public class ResultCache {
+
+  public static final long DEFAULT_LIMIT = 256L << 20;
+
+  private static final ConcurrentHashMap<String, ResultCache> caches = new ConcurrentHashMap<String, ResultCache>();
+
+  private final File dir;
+  private final long limit;
+  private long size = -1;
+
+  private ResultCache(File dir, long limit) {
+    this.dir = dir;
+    this.limit = limit;
+    dir.mkdirs();
+  }
+
+  /**
+   * Returns the cache for the directory, shared with every other user of the
+   * same directory in this JVM. The limit is the one given when the
+   * directory was first opened.
+   */
+  public static ResultCache open(File dir, long limit) {
+    String path;
+    try {
+      path = dir.getCanonicalPath();
+    } catch(IOException e) {
+      path = dir.getAbsolutePath();
+    }
+    ResultCache cache = caches.get(path);
+    if(cache == null) {
+      ResultCache created = new ResultCache(dir, limit);
+      cache = caches.putIfAbsent(path, created);
+      if(cache == null) {
+        cache = created;
+      }
+    }
+    return cache;
+  }
+
+  /**
+   * Returns the key for the chunk starting at the buffer's position. The
+   * buffer itself is left untouched.
+   */
+  public static String key(ByteBuffer chunk, Configuration config) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch(NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e.getMessage());
+    }
+    StringBuilder options = new StringBuilder();
+    options.append("unluac ").append(Main.version).append('\n');
+    options.append("mode ").append(config.mode == Configuration.Mode.DISASSEMBLE ? "disassemble" : "decompile").append('\n');
+    options.append("rawstring ").append(config.rawstring).append('\n');
+    options.append("variable ").append(config.variable).append('\n');
+    options.append("strict_scope ").append(config.strict_scope).append('\n');
+    options.append("luaj ").append(config.luaj).append('\n');
+    options.append("function ").append(config.function).append('\n');
+    byte[] opmap = config.opmap != null ? Files.readAllBytes(new File(config.opmap).toPath()) : new byte[0];
+    options.append("opmap ").append(opmap.length).append('\n');
+    digest.update(options.toString().getBytes(StandardCharsets.UTF_8));
+    digest.update(opmap);
+    digest.update(chunk.duplicate());
+    StringBuilder key = new StringBuilder();
+    for(byte b : digest.digest()) {
+      key.append(Character.forDigit((b >> 4) & 0xF, 16));
+      key.append(Character.forDigit(b & 0xF, 16));
+    }
+    return key.toString();
+  }
+
+  /**
+   * Copies the stored output for the key, if there is one, and marks it as
+   * recently used. Nothing is printed on a miss.
+   */
+  public boolean fetch(String key, OutputProvider out) {
+    File file = new File(dir, key);
+    byte[] bytes;
+    try {
+      bytes = Files.readAllBytes(file.toPath());
+    } catch(IOException e) {
+      return false;
+    }
+    file.setLastModified(System.currentTimeMillis());
+    out.print(bytes, 0, bytes.length);
+    return true;
+  }
+
+  /**
+   * Returns a provider that prints to the given one and records a copy. The
+   * copy becomes the entry for the key once it is committed.
+   */
+  public Entry store(String key, OutputProvider out) {
+    return new Entry(key, out);
+  }
+
+  private static boolean isKey(String name) {
+    if(name.length() != 64) return false;
+    for(int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if((c < '0' || c > '9') && (c < 'a' || c > 'f')) return false;
+    }
+    return true;
+  }
+
+  private List<File> entries() {
+    List<File> entries = new ArrayList<File>();
+    File[] files = dir.listFiles();
+    if(files != null) {
+      for(File file : files) {
+        if(isKey(file.getName()) && file.isFile()) {
+          entries.add(file);
+        }
+      }
+    }
+    return entries;
+  }
+
+  /**
+   * Accounts for an entry growing by the given number of bytes (which may be
+   * negative), evicting entries if the cache is now over its limit.
+   */
+  private synchronized void added(long bytes) {
+    if(size < 0) {
+      size = 0;
+      for(File file : entries()) {
+        size += file.length();
+      }
+    } else {
+      size += bytes;
+    }
+    if(size > limit) {
+      evict();
+    }
+  }
+
+  private void evict() {
+    List<File> files = entries();
+    final List<Long> modified = new ArrayList<Long>(files.size());
+    List<Integer> order = new ArrayList<Integer>(files.size());
+    long total = 0;
+    for(int i = 0; i < files.size(); i++) {
+      File file = files.get(i);
+      total += file.length();
+      modified.add(file.lastModified());
+      order.add(i);
+    }
+    Collections.sort(order, new Comparator<Integer>() {
+
+      @Override
+      public int compare(Integer a, Integer b) {
+        return Long.compare(modified.get(a), modified.get(b));
+      }
+
+    });
+    for(int i = 0; i < order.size() && total > limit; i++) {
+      File file = files.get(order.get(i));
+      long length = file.length();
+      if(file.delete()) {
+        total -= length;
+      }
+    }
+    size = total;
+  }
+
+  public class Entry implements OutputProvider {
+
+    private final String key;
+    private final OutputProvider out;
+    private File temp;
+    private FileOutputStream stream;
+    private BufferedOutputProvider copy;
+
+    private Entry(String key, OutputProvider out) {
+      this.key = key;
+      this.out = out;
+      try {
+        temp = File.createTempFile(key + ".", ".tmp", dir);
+        stream = new FileOutputStream(temp);
+        copy = new BufferedOutputProvider(stream.getChannel());
+      } catch(IOException e) {
+        abort();
+      }
+    }
+
+    @Override
+    public void print(String s) {
+      out.print(s);
+      if(copy != null) {
+        try {
+          copy.print(s);
+        } catch(RuntimeException e) {
+          abort();
+        }
+      }
+    }
+
+    @Override
+    public void print(byte b) {
+      out.print(b);
+      if(copy != null) {
+        try {
+          copy.print(b);
+        } catch(RuntimeException e) {
+          abort();
+        }
+      }
+    }
+
+    @Override
+    public void print(byte[] bytes, int offset, int length) {
+      out.print(bytes, offset, length);
+      if(copy != null) {
+        try {
+          copy.print(bytes, offset, length);
+        } catch(RuntimeException e) {
+          abort();
+        }
+      }
+    }
+
+    @Override
+    public void println() {
+      out.println();
+      if(copy != null) {
+        try {
+          copy.println();
+        } catch(RuntimeException e) {
+          abort();
+        }
+      }
+    }
+
+    @Override
+    public void flush() {
+      out.flush();
+    }
+
+    /**
+     * Makes the recorded output the entry for the key.
+     */
+    public void commit() {
+      if(copy == null) return;
+      long bytes;
+      try {
+        copy.flush();
+        stream.close();
+        File file = new File(dir, key);
+        bytes = temp.length() - file.length();
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        copy = null;
+        stream = null;
+        temp = null;
+      } catch(IOException e) {
+        abort();
+        return;
+      } catch(RuntimeException e) {
+        abort();
+        return;
+      }
+      added(bytes);
+    }
+
+    /**
+     * Discards the recorded output. Does nothing after a commit.
+     */
+    public void abort() {
+      copy = null;
+      if(stream != null) {
+        try {
+          stream.close();
+        } catch(IOException e) {
+          // the file is removed below anyway
+        }
+        stream = null;
+      }
+      if(temp != null) {
+        temp.delete();
+        temp = null;
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,248 @@
+package unluac;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import unluac.Configuration.Mode;
+import unluac.decompile.OutputProvider;
+
+/**
+ * Serves decompile and disassemble requests from one long-running JVM over
+ * a loopback socket. A connection may carry any number of requests, one
+ * after another, and up to MAX_CONNECTIONS connections are served
+ * concurrently; further connections wait to be accepted.
+ * <p>
+ * A request is an argument count, the arguments (each as written by
+ * DataOutputStream.writeUTF) using the same options as the command line,
+ * and then the input: a byte count followed by the chunk, or -1 if the
+ * arguments name a file to read instead. The response is the output as a
+ * series of frames, each a byte count followed by the bytes, ended by an
+ * empty frame; then a status byte (0 on success) and a message, empty on
+ * success.
+ * <p>
+ * There is no authentication. A request can name any file the server can
+ * read as its input, so the port must only be reachable by users who could
+ * read those files anyway. The cache and opcode map are fixed when the
+ * server starts; requests may not change them.
+ */
+public class Server {
+
+  private static final int MAX_ARGUMENTS = 1024;
+  private static final int MAX_INPUT = 64 << 20;
+  private static final int MAX_CONNECTIONS = 16;
+
+  private final Configuration defaults;
+  private final PrintStream log;
+  private final ResultCache cache;
+
+  public Server(Configuration config, PrintStream log) {
+    this.defaults = new Configuration(config);
+    this.log = log;
+    cache = config.cache != null ? ResultCache.open(new File(config.cache), config.cache_limit) : null;
+  }
+
+  public void run() throws IOException {
+    ServerSocket socket = new ServerSocket(defaults.port, 50, InetAddress.getLoopbackAddress());
+    ExecutorService pool = Executors.newFixedThreadPool(MAX_CONNECTIONS);
+    final Semaphore slots = new Semaphore(MAX_CONNECTIONS);
+    log.println("unluac server listening on " + socket.getInetAddress().getHostAddress() + ":" + socket.getLocalPort());
+    try {
+      while(true) {
+        slots.acquireUninterruptibly();
+        final Socket connection;
+        try {
+          connection = socket.accept();
+        } catch(IOException e) {
+          slots.release();
+          throw e;
+        }
+        pool.execute(new Runnable() {
+
+          @Override
+          public void run() {
+            try {
+              serve(connection);
+            } finally {
+              slots.release();
+            }
+          }
+
+        });
+      }
+    } finally {
+      pool.shutdown();
+      socket.close();
+    }
+  }
+
+  private void serve(Socket connection) {
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+      while(true) {
+        int count;
+        try {
+          count = in.readInt();
+        } catch(EOFException e) {
+          break;
+        }
+        if(count < 0 || count > MAX_ARGUMENTS) {
+          throw new IOException("bad request");
+        }
+        String[] args = new String[count];
+        for(int i = 0; i < count; i++) {
+          args[i] = in.readUTF();
+        }
+        int length = in.readInt();
+        byte[] input = null;
+        if(length > MAX_INPUT) {
+          throw new IOException("input too large");
+        } else if(length >= 0) {
+          input = new byte[length];
+          in.readFully(input);
+        } else if(length != -1) {
+          throw new IOException("bad request");
+        }
+        handle(args, input, out);
+        out.flush();
+      }
+    } catch(IOException e) {
+      // the client went away; nothing to report to
+    } catch(RuntimeException e) {
+      // failed writing a response; same as above
+    } finally {
+      try {
+        connection.close();
+      } catch(IOException e) {
+        // already closed
+      }
+    }
+  }
+
+  private void handle(String[] args, byte[] input, DataOutputStream out) throws IOException {
+    FrameOutputProvider provider = new FrameOutputProvider(out);
+    String message = null;
+    try {
+      Configuration config = new Configuration(defaults);
+      config.mode = Mode.DECOMPILE;
+      String fn = Main.parse_arguments(args, config);
+      if(config.mode != Mode.DECOMPILE && config.mode != Mode.DISASSEMBLE) {
+        throw new IllegalArgumentException("only decompile and disassemble requests are supported");
+      }
+      if(config.output != null) {
+        throw new IllegalArgumentException("output files are not supported by the server");
+      }
+      if(config.stats != null) {
+        throw new IllegalArgumentException("statistics are not supported by the server");
+      }
+      if(!Objects.equals(config.cache, defaults.cache) || config.cache_limit != defaults.cache_limit) {
+        throw new IllegalArgumentException("the cache is set when the server starts");
+      }
+      if(!Objects.equals(config.opmap, defaults.opmap)) {
+        throw new IllegalArgumentException("the opcode map is set when the server starts");
+      }
+      ByteBuffer chunk;
+      if(input != null) {
+        if(fn != null) {
+          throw new IllegalArgumentException("request has both an input file and input bytes");
+        }
+        chunk = ByteBuffer.wrap(input);
+      } else if(fn != null) {
+        chunk = Main.map_file(fn);
+      } else {
+        throw new IllegalArgumentException("no input file provided");
+      }
+      Main.process(chunk, config, cache, provider);
+    } catch(Exception e) {
+      message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+    } catch(StackOverflowError e) {
+      message = e.getClass().getSimpleName();
+    }
+    provider.flush();
+    out.writeInt(0);
+    out.writeByte(message == null ? 0 : 1);
+    out.writeUTF(message == null ? "" : message);
+  }
+
+  private static class FrameOutputProvider implements OutputProvider {
+
+    private final DataOutputStream out;
+    private final byte[] buffer = new byte[1 << 16];
+    private final byte[] eol;
+    private int count;
+
+    FrameOutputProvider(DataOutputStream out) {
+      this.out = out;
+      String separator = System.lineSeparator();
+      eol = new byte[separator.length()];
+      for(int i = 0; i < eol.length; i++) {
+        eol[i] = (byte) separator.charAt(i);
+      }
+    }
+
+    @Override
+    public void print(String s) {
+      for(int i = 0; i < s.length(); i++) {
+        int c = s.charAt(i);
+        if(c < 0 || c > 255) throw new IllegalStateException();
+        print((byte) c);
+      }
+    }
+
+    @Override
+    public void print(byte b) {
+      if(count == buffer.length) {
+        flush();
+      }
+      buffer[count++] = b;
+    }
+
+    @Override
+    public void print(byte[] bytes, int offset, int length) {
+      while(length > 0) {
+        if(count == buffer.length) {
+          flush();
+        }
+        int n = Math.min(length, buffer.length - count);
+        System.arraycopy(bytes, offset, buffer, count, n);
+        count += n;
+        offset += n;
+        length -= n;
+      }
+    }
+
+    @Override
+    public void println() {
+      print(eol, 0, eol.length);
+    }
+
+    @Override
+    public void flush() {
+      if(count > 0) {
+        try {
+          out.writeInt(count);
+          out.write(buffer, 0, count);
+        } catch(IOException e) {
+          throw new RuntimeException(e.getMessage());
+        }
+        count = 0;
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,180 @@
+package unluac;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import unluac.parse.LFunction;
+
+/**
+ * Wall time, call counts and allocated bytes for each phase of processing a
+ * chunk, kept per function. Phases may nest (printing a function decompiles
+ * and prints its children); each phase is charged only for the time and
+ * allocation not already charged to the phases nested inside it, so the
+ * numbers add up. Allocation is only counted on JVMs that can measure it per
+ * thread; otherwise it is reported as -1.
+ */
+public class Stats {
+
+  private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+  private final Record chunk = new Record();
+  private final Map<LFunction, Record> functions = new IdentityHashMap<LFunction, Record>();
+  private final ThreadLocal<Timer> current = new ThreadLocal<Timer>();
+
+  public static class Timer {
+
+    private final Record record;
+    private final String phase;
+    private final Timer parent;
+    private final long start;
+    private final long allocated;
+    private long nested_nanos;
+    private long nested_bytes;
+
+    private Timer(Record record, String phase, Timer parent) {
+      this.record = record;
+      this.phase = phase;
+      this.parent = parent;
+      this.allocated = allocatedBytes();
+      this.start = System.nanoTime();
+    }
+
+  }
+
+  private static class Phase {
+
+    long nanos;
+    long calls;
+    long bytes;
+
+  }
+
+  private static class Record {
+
+    private final Map<String, Phase> phases = new LinkedHashMap<String, Phase>();
+
+    synchronized void add(String name, long nanos, long bytes) {
+      Phase phase = phases.get(name);
+      if(phase == null) {
+        phase = new Phase();
+        phases.put(name, phase);
+      }
+      phase.nanos += nanos;
+      phase.calls++;
+      if(bytes < 0 || phase.bytes < 0) {
+        phase.bytes = -1;
+      } else {
+        phase.bytes += bytes;
+      }
+    }
+
+    synchronized void print(PrintStream out, String indent) {
+      out.print("{");
+      boolean first = true;
+      for(Map.Entry<String, Phase> entry : phases.entrySet()) {
+        Phase phase = entry.getValue();
+        out.print(first ? "\n" : ",\n");
+        first = false;
+        out.print(indent + "  \"" + entry.getKey() + "\": {\"nanos\": " + phase.nanos + ", \"calls\": " + phase.calls + ", \"bytes\": " + phase.bytes + "}");
+      }
+      out.print(first ? "}" : "\n" + indent + "}");
+    }
+
+  }
+
+  /**
+   * Starts timing a phase for the given function, or for the chunk as a
+   * whole if the function is null. Each call must be matched by a call to
+   * end on the same thread.
+   */
+  public Timer begin(LFunction function, String phase) {
+    Record record;
+    if(function == null) {
+      record = chunk;
+    } else {
+      synchronized(functions) {
+        record = functions.get(function);
+        if(record == null) {
+          record = new Record();
+          functions.put(function, record);
+        }
+      }
+    }
+    Timer timer = new Timer(record, phase, current.get());
+    current.set(timer);
+    return timer;
+  }
+
+  public void end(Timer timer) {
+    long nanos = System.nanoTime() - timer.start;
+    long allocated = allocatedBytes();
+    long bytes = allocated < 0 || timer.allocated < 0 ? -1 : allocated - timer.allocated;
+    timer.record.add(timer.phase, nanos - timer.nested_nanos, bytes < 0 ? -1 : bytes - timer.nested_bytes);
+    if(timer.parent != null) {
+      timer.parent.nested_nanos += nanos;
+      timer.parent.nested_bytes += bytes;
+    }
+    current.set(timer.parent);
+  }
+
+  /**
+   * Prints the results as a JSON object. Functions are listed in the order
+   * of the chunk, by their path (as used by --function); functions that
+   * were never processed are left out.
+   */
+  public void print(PrintStream out, LFunction main) {
+    out.print("{\n  \"chunk\": ");
+    chunk.print(out, "  ");
+    out.print(",\n  \"functions\": [");
+    List<String> paths = new ArrayList<String>();
+    List<LFunction> list = new ArrayList<LFunction>();
+    collect(main, "main", paths, list);
+    boolean first = true;
+    for(int i = 0; i < list.size(); i++) {
+      Record record;
+      synchronized(functions) {
+        record = functions.get(list.get(i));
+      }
+      if(record == null) continue;
+      out.print(first ? "\n" : ",\n");
+      first = false;
+      out.print("    {\"function\": \"" + paths.get(i) + "\", \"instructions\": " + list.get(i).code.length + ", \"phases\": ");
+      record.print(out, "    ");
+      out.print("}");
+    }
+    out.println(first ? "]\n}" : "\n  ]\n}");
+    out.flush();
+  }
+
+  private static void collect(LFunction function, String path, List<String> paths, List<LFunction> list) {
+    paths.add(path);
+    list.add(function);
+    // children not yet parsed (with --lazy) were never processed either
+    for(int i = 0; i < function.functions.length; i++) {
+      if(function.functions[i] != null) {
+        collect(function.functions[i], path + "/f" + i, paths, list);
+      }
+    }
+  }
+
+  /**
+   * Returns the bytes allocated so far by the current thread, or -1 if the
+   * JVM cannot tell.
+   */
+  public static long allocatedBytes() {
+    if(threads instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) threads;
+      if(sun.isThreadAllocatedMemorySupported() && sun.isThreadAllocatedMemoryEnabled()) {
+        return sun.getThreadAllocatedBytes(Thread.currentThread().getId());
+      }
+    }
+    return -1;
+  }
+
+}
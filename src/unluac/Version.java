@@ -1,5 +1,6 @@
 package unluac;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -13,8 +14,26 @@ import unluac.parse.LUpvalueType;
 
 public class Version {
 
+  private static final Version[] versions = new Version[10];
+  
+  /**
+   * Returns the shared, immutable settings for a Lua version, or null if the
+   * version is not supported. Only the luaj option of the configuration
+   * makes a difference.
+   */
   public static Version getVersion(Configuration config, int major, int minor) {
-    return new Version(config, major, minor);
+    if(major != 5 || minor < 0 || minor > 4) {
+      return null;
+    }
+    int index = 2 * minor + (config.luaj ? 1 : 0);
+    synchronized(versions) {
+      Version version = versions[index];
+      if(version == null) {
+        version = new Version(config, major, minor);
+        versions[index] = version;
+      }
+      return version;
+    }
   }
   
   public static class Setting<T> {
@@ -315,7 +334,7 @@ public class Version {
       throw new IllegalStateException();
     }
     
-    reservedWords = new HashSet<String>();
+    Set<String> reservedWords = new HashSet<String>();
     reservedWords.add("and");
     reservedWords.add("break");
     reservedWords.add("do");
@@ -340,6 +359,7 @@ public class Version {
     if(usegoto.get()) {
       reservedWords.add("goto");
     }
+    this.reservedWords = Collections.unmodifiableSet(reservedWords);
     
     this.lheadertype = LHeaderType.get(headertype);
     this.lstringtype = LStringType.get(stringtype);
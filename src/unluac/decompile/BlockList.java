@@ -0,0 +1,175 @@
+package unluac.decompile;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import unluac.decompile.block.Block;
+
+/**
+ * The list of blocks built up by the control flow handler, together with a
+ * segment tree over lines so that the blocks containing a given line can be
+ * found without scanning the whole list. Blocks may only be appended (or
+ * the whole list sorted), and lookups return them in list order.
+ */
+class BlockList implements Iterable<Block> {
+
+  private final List<Block> list = new ArrayList<Block>();
+  private final int lines;
+  private final int size;
+  private final int[][] nodes;
+  private final int[] counts;
+  private final Map<Block, Integer> positions = new IdentityHashMap<Block, Integer>();
+
+  public BlockList(int length) {
+    lines = length + 2;
+    int size = 1;
+    while(size < lines) size <<= 1;
+    this.size = size;
+    nodes = new int[2 * size][];
+    counts = new int[2 * size];
+  }
+
+  public void add(Block block) {
+    int position = list.size();
+    list.add(block);
+    positions.put(block, position);
+    update(position, block.begin, block.end, true);
+  }
+
+  public void addAll(Collection<? extends Block> blocks) {
+    for(Block block : blocks) {
+      add(block);
+    }
+  }
+
+  public Block get(int position) {
+    return list.get(position);
+  }
+
+  public int size() {
+    return list.size();
+  }
+
+  @Override
+  public Iterator<Block> iterator() {
+    return asList().iterator();
+  }
+
+  /**
+   * Returns a read-only view of the blocks.
+   */
+  public List<Block> asList() {
+    return Collections.unmodifiableList(list);
+  }
+
+  /**
+   * Sorts the blocks into their natural order and rebuilds the index.
+   */
+  public void sort() {
+    Collections.sort(list);
+    Arrays.fill(counts, 0);
+    positions.clear();
+    for(int position = 0; position < size(); position++) {
+      Block block = get(position);
+      positions.put(block, position);
+      update(position, block.begin, block.end, true);
+    }
+  }
+
+  /**
+   * Changes the end of a block, keeping the index up to date if the block is
+   * in this list.
+   */
+  public void setEnd(Block block, int end) {
+    Integer position = positions.get(block);
+    if(position != null) {
+      update(position, block.begin, block.end, false);
+      block.end = end;
+      update(position, block.begin, block.end, true);
+    } else {
+      block.end = end;
+    }
+  }
+
+  /**
+   * Returns the blocks that contain the given line, in list order.
+   */
+  public List<Block> containing(int line) {
+    List<Block> result = new ArrayList<Block>();
+    if(line < 0 || line >= lines) {
+      for(Block block : this) {
+        if(block.contains(line)) {
+          result.add(block);
+        }
+      }
+      return result;
+    }
+    int total = 0;
+    for(int node = size + line; node >= 1; node >>= 1) {
+      total += counts[node];
+    }
+    int[] found = new int[total];
+    int index = 0;
+    for(int node = size + line; node >= 1; node >>= 1) {
+      if(counts[node] > 0) {
+        System.arraycopy(nodes[node], 0, found, index, counts[node]);
+        index += counts[node];
+      }
+    }
+    Arrays.sort(found);
+    for(int position : found) {
+      Block block = get(position);
+      if(block.contains(line)) {
+        result.add(block);
+      }
+    }
+    return result;
+  }
+
+  private void update(int position, int begin, int end, boolean insert) {
+    begin = Math.max(begin, 0);
+    end = Math.min(end, lines);
+    int lo = begin + size;
+    int hi = end + size;
+    while(lo < hi) {
+      if((lo & 1) != 0) {
+        update(lo++, position, insert);
+      }
+      if((hi & 1) != 0) {
+        update(--hi, position, insert);
+      }
+      lo >>= 1;
+      hi >>= 1;
+    }
+  }
+
+  private void update(int node, int position, boolean insert) {
+    int[] list = nodes[node];
+    int count = counts[node];
+    if(insert) {
+      if(list == null) {
+        list = nodes[node] = new int[4];
+      } else if(count == list.length) {
+        list = nodes[node] = Arrays.copyOf(list, count * 2);
+      }
+      list[count] = position;
+      counts[node] = count + 1;
+    } else {
+      for(int i = 0; i < count; i++) {
+        if(list[i] == position) {
+          list[i] = list[count - 1];
+          counts[node] = count - 1;
+          return;
+        }
+      }
+      throw new IllegalStateException();
+    }
+  }
+
+}
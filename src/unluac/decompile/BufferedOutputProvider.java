@@ -0,0 +1,121 @@
+package unluac.decompile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Collects output into a single reusable buffer and writes it to the
+ * channel in large blocks, instead of issuing a write for every byte.
+ * Output must be flushed once printing is finished.
+ */
+public class BufferedOutputProvider implements OutputProvider {
+  
+  public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+  
+  private final FileChannel out;
+  private final boolean stdout;
+  private final ByteBuffer buffer;
+  private final byte[] eol;
+  private boolean started;
+  
+  /**
+   * Thrown when the output can't be written; the cause is the IOException.
+   */
+  public static class WriteException extends RuntimeException {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private final boolean closed;
+    
+    public WriteException(IOException cause, boolean closed) {
+      super(cause.getMessage(), cause);
+      this.closed = closed;
+    }
+    
+    /**
+     * True if the output is stdout and earlier writes to it succeeded, so
+     * the reader has gone away (e.g. "unluac x.luac | head").
+     */
+    public boolean isClosed() {
+      return closed;
+    }
+    
+  }
+  
+  public BufferedOutputProvider(FileChannel out) {
+    this(out, false);
+  }
+  
+  public BufferedOutputProvider(FileChannel out, boolean stdout) {
+    this(out, stdout, DEFAULT_BUFFER_SIZE);
+  }
+  
+  public BufferedOutputProvider(FileChannel out, boolean stdout, int size) {
+    this.out = out;
+    this.stdout = stdout;
+    buffer = ByteBuffer.allocateDirect(size);
+    String separator = System.lineSeparator();
+    eol = new byte[separator.length()];
+    for(int i = 0; i < eol.length; i++) {
+      eol[i] = (byte) separator.charAt(i);
+    }
+  }
+  
+  @Override
+  public void print(String s) {
+    for(int i = 0; i < s.length(); i++) {
+      int c = s.charAt(i);
+      if(c < 0 || c > 255) throw new IllegalStateException();
+      print((byte) c);
+    }
+  }
+  
+  @Override
+  public void print(byte b) {
+    if(!buffer.hasRemaining()) {
+      drain();
+    }
+    buffer.put(b);
+  }
+  
+  @Override
+  public void print(byte[] bytes, int offset, int length) {
+    if(length > buffer.remaining()) {
+      drain();
+      if(length > buffer.capacity()) {
+        write(ByteBuffer.wrap(bytes, offset, length));
+        return;
+      }
+    }
+    buffer.put(bytes, offset, length);
+  }
+  
+  @Override
+  public void println() {
+    print(eol, 0, eol.length);
+  }
+  
+  @Override
+  public void flush() {
+    drain();
+  }
+  
+  private void drain() {
+    buffer.flip();
+    write(buffer);
+    buffer.clear();
+  }
+  
+  private void write(ByteBuffer data) {
+    try {
+      while(data.hasRemaining()) {
+        out.write(data);
+        started = true;
+      }
+    } catch(IOException e) {
+      throw new WriteException(e, stdout && started);
+    }
+  }
+  
+}
@@ -12,16 +12,55 @@ public class Code {
   private final boolean[] upvalue;
   public final int length;
   
+  // Fields decoded once up front; the accessors below read from these
+  private final Op[] ops;
+  private final int[] a;
+  private final int[] b;
+  private final int[] c;
+  private final boolean[] k;
+  private final int[] bx;
+  private final int[] sbx;
+  private final int[] targets;
+  private final boolean[] hasTarget;
+  
   public Code(LFunction function) {
     this.code = function.code;
     this.length = code.length;
     map = function.header.opmap;
     extractor = function.header.extractor;
+    ops = new Op[length];
+    a = new int[length];
+    b = new int[length];
+    c = new int[length];
+    k = extractor.k != null ? new boolean[length] : null;
+    bx = new int[length];
+    sbx = new int[length];
     extraByte = new boolean[length];
     for(int i = 0; i < length; i++) {
-      int line = i + 1;
-      Op op = op(line);
-      extraByte[i] = op != null && op.hasExtraByte(codepoint(line), extractor);
+      int codepoint = code[i];
+      a[i] = extractor.A.extract(codepoint);
+      b[i] = extractor.B.extract(codepoint);
+      c[i] = extractor.C.extract(codepoint);
+      if(k != null) {
+        k[i] = extractor.k.extract(codepoint) != 0;
+      }
+      bx[i] = extractor.Bx.extract(codepoint);
+      sbx[i] = extractor.sBx.extract(codepoint);
+      if(i >= 1 && extraByte[i - 1]) {
+        ops[i] = Op.EXTRABYTE;
+      } else {
+        ops[i] = map.get(extractor.op.extract(codepoint));
+      }
+      extraByte[i] = ops[i] != null && ops[i].hasExtraByte(codepoint, extractor);
+    }
+    targets = new int[length];
+    hasTarget = new boolean[length];
+    for(int i = 0; i < length; i++) {
+      Op op = ops[i];
+      if(op != null && op.hasJump()) {
+        targets[i] = i + 2 + op.jumpField(code[i], extractor);
+        hasTarget[i] = true;
+      }
     }
     upvalue = new boolean[length];
     if(function.header.version.upvaluedeclarationtype.get() == Version.UpvalueDeclarationType.INLINE) {
@@ -30,7 +69,7 @@ public class Code {
         if(op(line) == Op.CLOSURE) {
           int f = Bx(line);
           if(f < function.functions.length) {
-            int nups = function.functions[f].numUpvalues;
+            int nups = function.getFunction(f).numUpvalues;
             for(int j = 1; j <= nups; j++) {
               if(i + j < length) {
                 upvalue[i + j] = true;
@@ -57,11 +96,7 @@ public class Code {
       System.out.println("line " + line + ": " + toString(line));
       reentered = false;
     }*/
-    if(line >= 2 && extraByte[line - 2]) {
-      return Op.EXTRABYTE;
-    } else {
-      return map.get(opcode(line));
-    }
+    return ops[line - 1];
   }
   
   public int opcode(int line) {
@@ -72,14 +107,14 @@ public class Code {
    * Returns the A field of the instruction at the given line.
    */
   public int A(int line) {
-    return extractor.A.extract(code[line - 1]);
+    return a[line - 1];
   }
   
   /**
    * Returns the C field of the instruction at the given line.
    */
   public int C(int line) {
-    return extractor.C.extract(code[line - 1]);
+    return c[line - 1];
   }
   
   /**
@@ -95,14 +130,17 @@ public class Code {
    * Returns the k field of the instruction at the given line (1 is true, 0 is false).
    */
   public boolean k(int line) {
-    return extractor.k.extract(code[line - 1]) != 0;
+    if(k == null) {
+      return extractor.k.extract(code[line - 1]) != 0;
+    }
+    return k[line - 1];
   }
   
   /**
    * Returns the B field of the instruction at the given line.
    */
   public int B(int line) {
-    return extractor.B.extract(code[line - 1]);
+    return b[line - 1];
   }
   
   /**
@@ -124,14 +162,14 @@ public class Code {
    * Returns the Bx field (B extended) of the instruction at the given line.
    */
   public int Bx(int line) {
-    return extractor.Bx.extract(code[line - 1]);
+    return bx[line - 1];
   }
   
   /**
    * Returns the sBx field (signed B extended) of the instruction at the given line.
    */
   public int sBx(int line) {
-    return extractor.sBx.extract(code[line - 1]);
+    return sbx[line - 1];
   }
   
   /**
@@ -139,6 +177,9 @@ public class Code {
    * This field will be chosen automatically based on the opcode.
    */
   public int target(int line) {
+    if(hasTarget[line - 1]) {
+      return targets[line - 1];
+    }
     return line + 1 + op(line).jumpField(codepoint(line), extractor);
   }
   
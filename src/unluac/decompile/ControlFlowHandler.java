@@ -2,10 +2,10 @@ package unluac.decompile;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
+import unluac.Stats;
 import unluac.Version;
 import unluac.decompile.block.AlwaysLoop;
 import unluac.decompile.block.Block;
@@ -93,13 +93,13 @@ public class ControlFlowHandler {
     public boolean[] reverse_targets;
     public int[] resolved;
     public boolean[] labels;
-    public List<Block> blocks;
+    public BlockList blocks;
   }
   
   public static class Result {
     
     public Result(State state) {
-      blocks = state.blocks;
+      blocks = state.blocks.asList();
       labels = state.labels;
     }
     
@@ -114,19 +114,33 @@ public class ControlFlowHandler {
     state.r = r;
     state.code = d.code;
     state.labels = new boolean[d.code.length + 1];
+    Stats.Timer timer = d.begin("find_reverse_targets");
     find_reverse_targets(state);
+    timer = d.next(timer, "find_branches");
     find_branches(state);
+    timer = d.next(timer, "combine_branches");
     combine_branches(state);
+    timer = d.next(timer, "resolve_lines");
     resolve_lines(state);
+    timer = d.next(timer, "initialize_blocks");
     initialize_blocks(state);
+    timer = d.next(timer, "find_fixed_blocks");
     find_fixed_blocks(state);
+    timer = d.next(timer, "find_while_loops");
     find_while_loops(state, d.declList);
+    timer = d.next(timer, "find_repeat_loops");
     find_repeat_loops(state);
+    timer = d.next(timer, "find_if_break");
     find_if_break(state, d.declList);
+    timer = d.next(timer, "find_set_blocks");
     find_set_blocks(state);
+    timer = d.next(timer, "find_pseudo_goto_statements");
     find_pseudo_goto_statements(state, d.declList);
+    timer = d.next(timer, "find_do_blocks");
     find_do_blocks(state, d.declList);
-    Collections.sort(state.blocks);
+    timer = d.next(timer, "sort_blocks");
+    state.blocks.sort();
+    d.end(timer);
     // DEBUG: print branches stuff
     /*
     Branch b = state.begin_branch;
@@ -460,11 +474,11 @@ public class ControlFlowHandler {
   }
   
   private static void initialize_blocks(State state) {
-    state.blocks = new LinkedList<Block>();
+    state.blocks = new BlockList(state.code.length);
   }
   
   private static void find_fixed_blocks(State state) {
-    List<Block> blocks = state.blocks;
+    BlockList blocks = state.blocks;
     Registers r = state.r;
     Code code = state.code;
     Op tforTarget = state.function.header.version.tfortarget.get();
@@ -606,7 +620,7 @@ public class ControlFlowHandler {
   }
   
   private static void find_while_loops(State state, Declaration[] declList) {
-    List<Block> blocks = state.blocks;
+    BlockList blocks = state.blocks;
     Branch j = state.end_branch;
     while(j != null) {
       if(j.type == Branch.Type.jump && j.targetFirst <= j.line && !splits_decl(j.targetFirst, j.targetFirst, j.line + 1, declList)) {
@@ -694,7 +708,7 @@ public class ControlFlowHandler {
   }
   
   private static void find_repeat_loops(State state) {
-    List<Block> blocks = state.blocks;
+    BlockList blocks = state.blocks;
     Branch b = state.begin_branch;
     while(b != null) {
       if(is_conditional(b)) {
@@ -799,7 +813,7 @@ public class ControlFlowHandler {
   
   private static void resolve_else(State state, Stack<Branch> stack, Stack<Branch> hanging, Stack<ElseEndBlock> elseStack, Branch top, Branch b, int tailTargetSecond) {
     while(!elseStack.isEmpty() && elseStack.peek().end == tailTargetSecond && elseStack.peek().begin >= top.targetFirst) {
-      elseStack.pop().end = b.line;
+      state.blocks.setEnd(elseStack.pop(), b.line);
     }
     
     Stack<Branch> replace = new Stack<Branch>();
@@ -1155,7 +1169,7 @@ public class ControlFlowHandler {
   }
   
   private static void find_set_blocks(State state) {
-    List<Block> blocks = state.blocks;
+    BlockList blocks = state.blocks;
     Branch b = state.begin_branch;
     while(b != null) {
       if(is_assignment(b) || b.type == Branch.Type.finalset) {
@@ -1195,11 +1209,9 @@ public class ControlFlowHandler {
   
   private static Block enclosing_block(State state, int line) {
     Block enclosing = null;
-    for(Block block : state.blocks) {
-      if(block.contains(line)) {
-        if(enclosing == null || enclosing.contains(block)) {
-          enclosing = block;
-        }
+    for(Block block : state.blocks.containing(line)) {
+      if(enclosing == null || enclosing.contains(block)) {
+        enclosing = block;
       }
     }
     return enclosing;
@@ -1207,8 +1219,8 @@ public class ControlFlowHandler {
   
   private static Block enclosing_breakable_block(State state, int line) {
     Block enclosing = null;
-    for(Block block : state.blocks) {
-      if(block.contains(line) && block.breakable()) {
+    for(Block block : state.blocks.containing(line)) {
+      if(block.breakable()) {
         if(enclosing == null || enclosing.contains(block)) {
           enclosing = block;
         }
@@ -1219,8 +1231,8 @@ public class ControlFlowHandler {
   
   private static Block enclosing_unprotected_block(State state, int line) {
     Block enclosing = null;
-    for(Block block : state.blocks) {
-      if(block.contains(line) && block.isUnprotected()) {
+    for(Block block : state.blocks.containing(line)) {
+      if(block.isUnprotected()) {
         if(enclosing == null || enclosing.contains(block)) {
           enclosing = block;
         }
@@ -1235,8 +1247,8 @@ public class ControlFlowHandler {
       if(b.type == Branch.Type.jump && b.targetFirst > b.line) {
         int end = b.targetFirst;
         Block smallestEnclosing = null;
-        for(Block block : state.blocks) {
-          if(block.contains(b.line) && block.contains(end - 1)) {
+        for(Block block : state.blocks.containing(b.line)) {
+          if(block.contains(end - 1)) {
             if(smallestEnclosing == null || smallestEnclosing.contains(block)) {
               smallestEnclosing = block;
             }
@@ -1245,8 +1257,8 @@ public class ControlFlowHandler {
         if(smallestEnclosing != null) {
           // Should always find the outer block at least...
           Block wrapping = null;
-          for(Block block : state.blocks) {
-            if(block != smallestEnclosing && smallestEnclosing.contains(block) && block.contains(b.line)) {
+          for(Block block : state.blocks.containing(b.line)) {
+            if(block != smallestEnclosing && smallestEnclosing.contains(block)) {
               if(wrapping == null || block.contains(wrapping)) {
                 wrapping = block;
               }
@@ -1354,15 +1366,13 @@ public class ControlFlowHandler {
       int begin = decl.begin;
       if(!decl.forLoop && !decl.forLoopExplicit) {
         boolean needsDoEnd = true;
-        for(Block block : state.blocks) {
-          if(block.contains(decl.begin)) {
-            if(block.scopeEnd() == decl.end) {
-              block.useScope();
-              needsDoEnd = false;
-              break;
-            } else if(block.scopeEnd() < decl.end) {
-              begin = Math.min(begin, block.begin);
-            }
+        for(Block block : state.blocks.containing(decl.begin)) {
+          if(block.scopeEnd() == decl.end) {
+            block.useScope();
+            needsDoEnd = false;
+            break;
+          } else if(block.scopeEnd() < decl.end) {
+            begin = Math.min(begin, block.begin);
           }
         }
         if(needsDoEnd) {
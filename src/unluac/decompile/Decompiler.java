@@ -7,11 +7,14 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 import unluac.Configuration;
+import unluac.Stats;
 import unluac.Version;
 import unluac.decompile.block.Block;
-import unluac.decompile.block.DoEndBlock;
 import unluac.decompile.block.OuterBlock;
 import unluac.decompile.expression.ClosureExpression;
 import unluac.decompile.expression.ConstantExpression;
@@ -55,12 +58,19 @@ public class Decompiler {
   private final LFunction[] functions;  
   private final int params;
   private final int vararg;
+  private final int line;
+  
+  private State result;
+  private Decompiler[] children;
+  private int[] statementCounts;
+  private PrototypeCache prototypes;
   
   public static class State {
     private Registers r;
     private boolean[] skip;
     private Block outer;
     private boolean[] labels;
+    private boolean[] emitted;
   }
   
   public Decompiler(LFunction function) {
@@ -75,7 +85,9 @@ public class Decompiler {
     code = new Code(function);
     if(function.stripped || getConfiguration().variable == Configuration.VariableMode.NODEBUG) {
       if(getConfiguration().variable == Configuration.VariableMode.FINDER) {
+        Stats.Timer timer = begin("variable_finder");
         declList = VariableFinder.process(this, function.numParams, function.maximumStackSize);
+        end(timer);
       } else {
         declList = new Declaration[function.maximumStackSize];
         int scopeEnd = length + function.header.version.outerblockscopeadjustment.get();
@@ -105,6 +117,7 @@ public class Decompiler {
     functions = function.functions;
     params = function.numParams;
     vararg = function.vararg;
+    this.line = line;
   }
   
   public Configuration getConfiguration() {
@@ -122,19 +135,157 @@ public class Decompiler {
   
   public State decompile() {
     State state = new State();
+    Stats.Timer timer = begin("registers");
     state.r = new Registers(registers, length, declList, f, getNoDebug());
+    end(timer);
     ControlFlowHandler.Result result = ControlFlowHandler.process(this, state.r);
     List<Block> blocks = result.blocks;
     state.outer = blocks.get(0);
     state.labels = result.labels;
+    timer = begin("process_sequence");
     processSequence(state, blocks, 1, code.length);
+    timer = next(timer, "resolve");
     for(Block block : blocks) {
       block.resolve(state.r);
     }
+    timer = next(timer, "unused_constants");
     handleUnusedConstants(state.outer);
+    end(timer);
     return state;
   }
   
+  /**
+   * Decompiles this function and every nested function ahead of printing,
+   * running sibling prototypes as separate tasks on the given pool. A child
+   * starts once its parent has finished, since the parent's declarations
+   * (and, for inline upvalue declarations, the child's upvalues) are only
+   * settled then.
+   */
+  public State decompileAll(ForkJoinPool pool) {
+    pool.invoke(new DecompileTask(this));
+    return result;
+  }
+  
+  /**
+   * Returns the decompiler for a nested function, reusing the one prepared
+   * by decompileAll when there is one for the same closure site.
+   */
+  public Decompiler getChild(LFunction child, int line) {
+    if(children != null) {
+      for(int i = 0; i < functions.length; i++) {
+        if(functions[i] == child && children[i] != null && children[i].line == line) {
+          return children[i];
+        }
+      }
+    }
+    Decompiler d = new Decompiler(child, declList, line);
+    d.prototypes = prototypes;
+    return d;
+  }
+  
+  /**
+   * Returns a decompiler for the nested function with the given index. This
+   * function is decompiled first (but not its other children), since the
+   * child's upvalues resolve against the declarations as of its first
+   * closure site.
+   */
+  public Decompiler getNested(int index) {
+    if(result == null) {
+      result = decompile();
+    }
+    LFunction child = function.getFunction(index);
+    int closureLine = -1;
+    for(int line = 1; line <= code.length; line++) {
+      if(code.op(line) == Op.CLOSURE && code.Bx(line) == index) {
+        closureLine = line;
+        break;
+      }
+    }
+    Decompiler d = new Decompiler(child, declList, closureLine == -1 ? -1 : closureLine + 1);
+    d.prototypes = prototypes;
+    return d;
+  }
+  
+  /**
+   * Returns the result prepared by decompileAll, or decompiles now.
+   */
+  public State getResult() {
+    if(result != null) {
+      return result;
+    } else {
+      return decompile();
+    }
+  }
+  
+  private static class DecompileTask extends RecursiveAction {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private final Decompiler parent;
+    private final int index;
+    private final int closureLine;
+    private Decompiler d;
+    
+    DecompileTask(Decompiler d) {
+      this.parent = null;
+      this.index = -1;
+      this.closureLine = -1;
+      this.d = d;
+    }
+    
+    DecompileTask(Decompiler parent, int index, int line) {
+      this.parent = parent;
+      this.index = index;
+      this.closureLine = line;
+    }
+    
+    @Override
+    protected void compute() {
+      if(d == null) {
+        d = new Decompiler(parent.function.getFunction(index), parent.declList, closureLine);
+        d.prototypes = parent.prototypes;
+        parent.children[index] = d;
+      }
+      d.result = d.decompile();
+      if(d.functions.length > 0) {
+        d.children = new Decompiler[d.functions.length];
+        List<DecompileTask> tasks = new ArrayList<DecompileTask>(d.functions.length);
+        boolean[] seen = new boolean[d.functions.length];
+        for(int line = 1; line <= d.code.length; line++) {
+          if(d.code.op(line) == Op.CLOSURE) {
+            int index = d.code.Bx(line);
+            if(index >= 0 && index < seen.length && !seen[index]) {
+              seen[index] = true;
+              tasks.add(new DecompileTask(d, index, line + 1));
+            }
+          }
+        }
+        ForkJoinTask.invokeAll(tasks);
+      }
+    }
+    
+  }
+  
+  /**
+   * Shares the printed bodies of nested functions through the given cache
+   * (which may be null, for none).
+   */
+  public void setPrototypeCache(PrototypeCache prototypes) {
+    this.prototypes = prototypes;
+  }
+  
+  /**
+   * Prints the body of this function as a nested function, reusing the text
+   * for an identical prototype when sharing through a PrototypeCache.
+   */
+  public void printNested(Output out) {
+    if(prototypes != null) {
+      prototypes.print(this, out);
+    } else {
+      print(getResult(), out);
+    }
+  }
+  
   public void print(State state) {
     print(state, new Output());
   }
@@ -144,8 +295,47 @@ public class Decompiler {
   }
   
   public void print(State state, Output out) {
+    Stats.Timer timer = begin("print");
     handleInitialDeclares(out);
     state.outer.print(this, out);
+    end(timer);
+  }
+  
+  /**
+   * Starts timing a phase of this function, if statistics are being kept.
+   */
+  Stats.Timer begin(String phase) {
+    Stats stats = function.header.stats;
+    return stats != null ? stats.begin(function, phase) : null;
+  }
+  
+  void end(Stats.Timer timer) {
+    if(timer != null) {
+      function.header.stats.end(timer);
+    }
+  }
+  
+  Stats.Timer next(Stats.Timer timer, String phase) {
+    end(timer);
+    return begin(phase);
+  }
+  
+  /**
+   * Walks the decompiled statements of this function (but not of the
+   * functions nested in it).
+   */
+  public void walk(State state, Walker w) {
+    state.outer.walk(w);
+  }
+  
+  /**
+   * Prints this function as a function expression, for when a nested
+   * function is decompiled on its own.
+   */
+  public void printFunction(State state, Output out) {
+    result = state;
+    new ClosureExpression(function, line).printFunction(this, out);
+    out.println();
   }
   
   private void handleUnusedConstants(Block outer) {
@@ -716,7 +906,7 @@ public class Decompiler {
       case CLOSE:
         break;
       case CLOSURE: {
-        LFunction f = functions[Bx];
+        LFunction f = function.getFunction(Bx);
         operations.add(new RegisterSet(line, A, new ClosureExpression(f, line + 1)));
         if(function.header.version.upvaluedeclarationtype.get() == Version.UpvalueDeclarationType.INLINE) {
           // Handle upvalue declarations
@@ -818,24 +1008,45 @@ public class Decompiler {
     for(Statement stmt : stmts) {
       block.addStatement(stmt);
     }
+    if(state.emitted != null && !stmts.isEmpty()) {
+      state.emitted[line] = true;
+    }
     return assign;
   }
   
+  /**
+   * Whether any statement would be emitted for the lines begin through end
+   * when they are wrapped in a block of their own. Such a block behaves the
+   * same as the outer block for the lines it covers, so this is answered
+   * from a single pass over the function without inner blocks.
+   */
   public boolean hasStatement(int begin, int end) {
+    begin = Math.max(begin, 1);
+    end = Math.min(end, code.length);
     if(begin <= end) {
-      State state = new State();
-      state.r = new Registers(registers, length, declList, f, getNoDebug());
-      state.outer = new OuterBlock(function, code.length);
-      Block scoped = new DoEndBlock(function, begin, end + 1);
-      state.labels = new boolean[code.length + 1];
-      List<Block> blocks = Arrays.asList(state.outer, scoped);
-      processSequence(state, blocks, 1, code.length);
-      return !scoped.isEmpty();
+      if(statementCounts == null) {
+        statementCounts = buildStatementCounts();
+      }
+      return statementCounts[end] - statementCounts[begin - 1] > 0;
     } else {
       return false;
     }
   }
   
+  private int[] buildStatementCounts() {
+    State state = new State();
+    state.r = new Registers(registers, length, declList, f, getNoDebug());
+    state.outer = new OuterBlock(function, code.length);
+    state.labels = new boolean[code.length + 1];
+    state.emitted = new boolean[code.length + 1];
+    processSequence(state, Arrays.asList(state.outer), 1, code.length);
+    int[] counts = new int[code.length + 1];
+    for(int line = 1; line <= code.length; line++) {
+      counts[line] = counts[line - 1] + (state.emitted[line] ? 1 : 0);
+    }
+    return counts;
+  }
+  
   private void processSequence(State state, List<Block> blocks, int begin, int end) {
     Registers r = state.r;
     int blockContainerIndex = 0;
@@ -952,6 +1163,9 @@ public class Decompiler {
           // Create a new Assignment to hold the declarations
           assignment = new Assignment();
           block.addStatement(assignment);
+          if(state.emitted != null) {
+            state.emitted[line] = true;
+          }
         } else {
           for(Declaration decl : locals) {
             if(assignment.assigns(decl)) {
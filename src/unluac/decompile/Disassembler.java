@@ -19,6 +19,14 @@ public class Disassembler {
     this(function, "main", null);
   }
   
+  /**
+   * Disassembles a nested function and its children, keeping the full path
+   * (such as "main/f3/f1") in the function names.
+   */
+  public Disassembler(LFunction function, String path) {
+    this(function, path.substring(path.lastIndexOf('/') + 1), path.lastIndexOf('/') >= 0 ? path.substring(0, path.lastIndexOf('/')) : null);
+  }
+  
   private Disassembler(LFunction function, String name, String parent) {
     this.function = function;
     this.code = new Code(function);
@@ -32,7 +40,7 @@ public class Disassembler {
   
   private void disassemble(Output out, int level, int index) {
     final int print_flags = PrintFlag.DISASSEMBLER;
-    if(parent == null) {
+    if(level == 0) {
       out.println(".version\t" + function.header.version.getName());
       out.println();
       
@@ -134,7 +142,7 @@ public class Disassembler {
         if(op == Op.CLOSURE && function.header.version.upvaluedeclarationtype.get() == Version.UpvalueDeclarationType.INLINE) {
           int f = code.Bx(line);
           if(f >= 0 && f < function.functions.length) {
-            LFunction closed = function.functions[f];
+            LFunction closed = function.getFunction(f);
             if(closed.numUpvalues > 0) {
               upvalue_count = closed.numUpvalues;
             }
@@ -159,7 +167,7 @@ public class Disassembler {
     out.println();
     
     int subindex = 0;
-    for(LFunction child : function.functions) {
+    for(LFunction child : function.getFunctions()) {
       new Disassembler(child, "f" + subindex, fullname).disassemble(out, level + 1, subindex);
       subindex++;
     }
@@ -31,9 +31,27 @@ public class FileOutputProvider implements OutputProvider {
     }
   }
   
+  @Override
+  public void print(byte[] bytes, int offset, int length) {
+    try {
+      out.write(bytes, offset, length);
+    } catch(IOException e) {
+      throw new RuntimeException(e.getMessage());
+    }
+  }
+  
   @Override
   public void println() {
     print(eol);
   }
   
+  @Override
+  public void flush() {
+    try {
+      out.flush();
+    } catch(IOException e) {
+      throw new RuntimeException(e.getMessage());
+    }
+  }
+  
 }
@@ -8,8 +8,8 @@ import unluac.Version;
 
 public class OpcodeMap {
 
-  private Op[] map;
-  private Map<String, Op> lookup;
+  private final Op[] map;
+  private final Map<String, Op> lookup = new HashMap<String, Op>();
   
   public OpcodeMap(Map<Integer, Op> useropmap) {
     int max = -1;
@@ -20,12 +20,10 @@ public class OpcodeMap {
     for(Entry<Integer, Op> entry : useropmap.entrySet()) {
       map[entry.getKey()] = entry.getValue();
     }
-    init_lookup();
     setup_lookup(false);
   }
   
   public OpcodeMap(Version.OpcodeMapType type) {
-    init_lookup();
     switch(type) {
       case LUA50:
         map = new Op[35];
@@ -311,10 +309,6 @@ public class OpcodeMap {
     return map.length;
   }
   
-  private void init_lookup() {
-    lookup = new HashMap<String, Op>();
-  }
-  
   private void allow_51_math_lookup() {
     Op[] ops = {Op.MOD, Op.LEN};
     allow_ops_lookup(ops);
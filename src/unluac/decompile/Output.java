@@ -5,6 +5,7 @@ public class Output {
   private OutputProvider out;
   private int indentationLevel = 0;
   private int position = 0;
+  private byte[] scratch = new byte[256];
   
   public Output() {
     this(new OutputProvider() {
@@ -19,11 +20,21 @@ public class Output {
         System.out.write(b);
       }
       
+      @Override
+      public void print(byte[] bytes, int offset, int length) {
+        System.out.write(bytes, offset, length);
+      }
+      
       @Override
       public void println() {
         System.out.println();
       }
       
+      @Override
+      public void flush() {
+        System.out.flush();
+      }
+      
     });
   }
   
@@ -52,20 +63,32 @@ public class Output {
   }
   
   private void start() {
-    if(position == 0) {
-      for(int i = indentationLevel; i != 0; i--) {
-        out.print(" ");
-        position++;
+    if(position == 0 && indentationLevel > 0) {
+      byte[] bytes = scratch(indentationLevel);
+      for(int i = 0; i < indentationLevel; i++) {
+        bytes[i] = ' ';
       }
+      out.print(bytes, 0, indentationLevel);
+      position += indentationLevel;
+    }
+  }
+  
+  private byte[] scratch(int length) {
+    if(scratch.length < length) {
+      scratch = new byte[Math.max(length, 2 * scratch.length)];
     }
+    return scratch;
   }
   
   public void print(String s) {
     start();
-    for(int i = 0; i < s.length(); i++) {
-      out.print((byte) s.charAt(i));
+    int length = s.length();
+    byte[] bytes = scratch(length);
+    for(int i = 0; i < length; i++) {
+      bytes[i] = (byte) s.charAt(i);
     }
-    position += s.length();
+    out.print(bytes, 0, length);
+    position += length;
   }
   
   public void print(byte b) {
@@ -74,6 +97,12 @@ public class Output {
     position += 1;
   }
   
+  public void print(byte[] bytes, int offset, int length) {
+    start();
+    out.print(bytes, offset, length);
+    position += length;
+  }
+  
   public void println() {
     start();
     out.println();
@@ -85,4 +114,8 @@ public class Output {
     println();
   }
   
+  public void flush() {
+    out.flush();
+  }
+  
 }
@@ -6,6 +6,10 @@ public interface OutputProvider {
   
   public void print(byte b);
   
+  public void print(byte[] bytes, int offset, int length);
+  
   public void println();
   
+  public void flush();
+  
 }
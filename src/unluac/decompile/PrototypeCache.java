@@ -0,0 +1,142 @@
+package unluac.decompile;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import unluac.parse.LFunction;
+import unluac.parse.LUpvalue;
+
+/**
+ * The printed bodies of nested functions, shared between chunks so that a
+ * prototype appearing in many of them is decompiled once. A body is reused
+ * only for a prototype with the same structural hash, the same upvalue names
+ * (as resolved from the enclosing function), the same nesting level and the
+ * same indentation, as each of those can change the text. Entries are added
+ * until the cache reaches its size limit, counted in bytes of stored text.
+ */
+public class PrototypeCache {
+
+  public static final long DEFAULT_LIMIT = 64L << 20;
+
+  private final ConcurrentHashMap<String, Body> bodies = new ConcurrentHashMap<String, Body>();
+  private final AtomicLong size = new AtomicLong();
+  private final long limit;
+
+  /**
+   * The printed text, without line breaks, and where each line break goes.
+   */
+  private static class Body {
+
+    final byte[] text;
+    final int[] breaks;
+
+    Body(byte[] text, int[] breaks) {
+      this.text = text;
+      this.breaks = breaks;
+    }
+
+    long bytes() {
+      return text.length + 4L * breaks.length;
+    }
+
+  }
+
+  public PrototypeCache(long limit) {
+    this.limit = limit;
+  }
+
+  /**
+   * Prints the body of a nested function, from the cache if possible, and
+   * otherwise by decompiling it (and caching the result).
+   */
+  void print(Decompiler d, Output out) {
+    String key = key(d, out.getIndentationLevel());
+    Body body = bodies.get(key);
+    if(body == null) {
+      final ByteArrayOutputStream text = new ByteArrayOutputStream();
+      final List<Integer> breaks = new ArrayList<Integer>();
+      Output capture = new Output(new OutputProvider() {
+
+        @Override
+        public void print(String s) {
+          for(int i = 0; i < s.length(); i++) {
+            int c = s.charAt(i);
+            if(c > 255) throw new IllegalStateException();
+            text.write(c);
+          }
+        }
+
+        @Override
+        public void print(byte b) {
+          text.write(b);
+        }
+
+        @Override
+        public void print(byte[] bytes, int offset, int length) {
+          text.write(bytes, offset, length);
+        }
+
+        @Override
+        public void println() {
+          breaks.add(text.size());
+        }
+
+        @Override
+        public void flush() {}
+
+      });
+      capture.setIndentationLevel(out.getIndentationLevel());
+      d.print(d.getResult(), capture);
+      int[] positions = new int[breaks.size()];
+      for(int i = 0; i < positions.length; i++) {
+        positions[i] = breaks.get(i);
+      }
+      body = new Body(text.toByteArray(), positions);
+      // reserve the space first, so the limit holds with concurrent stores
+      long bytes = key.length() + body.bytes();
+      if(size.addAndGet(bytes) > limit || bodies.putIfAbsent(key, body) != null) {
+        size.addAndGet(-bytes);
+      }
+    }
+    // the body already holds its indentation
+    int indentation = out.getIndentationLevel();
+    out.setIndentationLevel(0);
+    int start = 0;
+    for(int position : body.breaks) {
+      if(position > start) {
+        out.print(body.text, start, position - start);
+      }
+      out.println();
+      start = position;
+    }
+    if(start < body.text.length) {
+      out.print(body.text, start, body.text.length - start);
+    }
+    out.setIndentationLevel(indentation);
+  }
+
+  private static String key(Decompiler d, int indentation) {
+    LFunction function = d.function;
+    CodeExtract extract = function.header.extractor;
+    StringBuilder key = new StringBuilder();
+    key.append(function.header.version.getName());
+    key.append(' ').append(extract.op.size).append(',').append(extract.A.size).append(',').append(extract.B.size).append(',').append(extract.C.size);
+    key.append(' ').append(d.getNoDebug());
+    key.append(' ').append(function.level);
+    key.append(' ').append(indentation);
+    key.append(' ');
+    for(byte b : function.getHash(false)) {
+      key.append(Character.forDigit((b >> 4) & 0xF, 16));
+      key.append(Character.forDigit(b & 0xF, 16));
+    }
+    // names resolved when the decompiler was made, possibly after hashing
+    for(LUpvalue upvalue : function.upvalues) {
+      key.append(' ').append(upvalue.name);
+    }
+    return key.toString();
+  }
+
+}
@@ -16,33 +16,54 @@ public class Registers {
   public final int registers;
   public final int length;
   
-  private final Declaration[][] decls;
+  private final Track<Declaration>[] decls;
   private final Function f;
   public final boolean isNoDebug;
-  private final Expression[][] values;
-  private final int[][] updated;
+  private final Track<Expression>[] values;
+  
+  /**
+   * The last line that has been started. Values at later lines have not been
+   * copied forward yet and read as null, except where set explicitly.
+   */
+  private int top;
+  
+  /**
+   * Registers that may have a run starting at or after top. Only these can
+   * differ from the previous line when a line is started, so startLine
+   * leaves every other register's run shared with the line before.
+   */
+  private int[] dirty;
+  private int[] spare;
+  private int dirtyCount;
+  private final boolean[] isDirty;
   
   public Registers(int registers, int length, Declaration[] declList, Function f, boolean isNoDebug) {
     this.registers = registers;
     this.length = length;
-    decls = new Declaration[registers][length + 1];
+    decls = Track.array(registers);
+    for(int register = 0; register < registers; register++) {
+      decls[register] = new Track<Declaration>();
+    }
     for(int i = 0; i < declList.length; i++) {
       Declaration decl = declList[i];
       int register = 0;
-      while(decls[register][decl.begin] != null) {
+      while(getDeclaration(register, decl.begin) != null) {
         register++;
       }
       decl.register = register;
-      for(int line = decl.begin; line <= decl.end; line++) {
-        decls[register][line] = decl; 
-      }
+      newDeclaration(decl, register, decl.begin, decl.end);
     }
-    values = new Expression[registers][length + 1];
+    values = Track.array(registers);
     Expression nil = ConstantExpression.createNil(0);
     for(int register = 0; register < registers; register++) {
-      values[register][0] = nil;
+      values[register] = new Track<Expression>();
+      values[register].put(0, 0, nil, 0, true);
     }
-    updated = new int[registers][length + 1];
+    top = 0;
+    dirty = new int[registers];
+    spare = new int[registers];
+    dirtyCount = 0;
+    isDirty = new boolean[registers];
     startedLines = new boolean[length + 1];
     Arrays.fill(startedLines, false);
     this.f = f;
@@ -54,16 +75,16 @@ public class Registers {
   }
   
   public boolean isAssignable(int register, int line) {
-    return isLocal(register, line) && (!decls[register][line].forLoop || isNoDebug);
+    return isLocal(register, line) && (!getDeclaration(register, line).forLoop || isNoDebug);
   }
   
   public boolean isLocal(int register, int line) {
     if(register < 0) return false;
-    return decls[register][line] != null;
+    return getDeclaration(register, line) != null;
   }
   
   public boolean isNewLocal(int register, int line) {
-    Declaration decl = decls[register][line];
+    Declaration decl = getDeclaration(register, line);
     return decl != null && decl.begin == line && !decl.forLoop && !decl.forLoopExplicit;
   }
   
@@ -83,7 +104,9 @@ public class Registers {
   }
   
   public Declaration getDeclaration(int register, int line) {
-    return decls[register][line];
+    Track<Declaration> track = decls[register];
+    int index = track.find(line);
+    return index >= 0 ? track.value(index) : null;
   }
   
   private boolean[] startedLines;
@@ -91,9 +114,57 @@ public class Registers {
   public void startLine(int line) {
     //if(startedLines[line]) return;
     startedLines[line] = true;
-    for(int register = 0; register < registers; register++) {
-      values[register][line] = values[register][line - 1];
-      updated[register][line] = updated[register][line - 1];
+    if(line == top || line == top + 1) {
+      top = line;
+      int[] list = dirty;
+      int count = dirtyCount;
+      dirty = spare;
+      spare = list;
+      dirtyCount = 0;
+      for(int i = 0; i < count; i++) {
+        int register = list[i];
+        isDirty[register] = false;
+        Track<Expression> track = values[register];
+        int previous = track.find(line - 1);
+        if(track.find(line) != previous) {
+          track.put(line, line, track.value(previous), track.stamp(previous), true);
+        }
+        if(track.line(track.size() - 1) >= top) {
+          markDirty(register);
+        }
+      }
+    } else {
+      if(line > top + 1) {
+        // Skipped lines were never copied into, so they stay null
+        for(int register = 0; register < registers; register++) {
+          if(isVirtual(register, top + 1)) {
+            values[register].put(top + 1, top + 1, null, 0, true);
+          }
+        }
+        top = line;
+      }
+      for(int register = 0; register < registers; register++) {
+        Track<Expression> track = values[register];
+        int previous = track.find(line - 1);
+        if(track.find(line) != previous) {
+          put(register, line, track.value(previous), track.stamp(previous));
+        }
+      }
+      dirtyCount = 0;
+      for(int register = 0; register < registers; register++) {
+        isDirty[register] = false;
+        Track<Expression> track = values[register];
+        if(track.line(track.size() - 1) >= top) {
+          markDirty(register);
+        }
+      }
+    }
+  }
+  
+  private void markDirty(int register) {
+    if(!isDirty[register]) {
+      isDirty[register] = true;
+      dirty[dirtyCount++] = register;
     }
   }
   
@@ -105,7 +176,7 @@ public class Registers {
     if(isLocal(register, line - 1)) {
       return new LocalVariable(getDeclaration(register, line - 1));
     } else {
-      return values[register][line - 1];
+      return value(register, line - 1);
     }
   }
   
@@ -129,24 +200,54 @@ public class Registers {
     if(isNoDebug) {
       return getExpression(register, line);
     } else {
-      return values[register][line - 1];
+      return value(register, line - 1);
     }
   }
 
   public int getUpdated(int register, int line) {
-    return updated[register][line];
+    Track<Expression> track = values[register];
+    int index = track.find(line);
+    return index < 0 || isVirtual(register, line) ? 0 : track.stamp(index);
   }
   
   public void setValue(int register, int line, Expression expression) {
-    values[register][line] = expression;
-    updated[register][line] = line;
+    put(register, line, expression, line);
+  }
+  
+  private Expression value(int register, int line) {
+    Track<Expression> track = values[register];
+    int index = track.find(line);
+    return index < 0 || isVirtual(register, line) ? null : track.value(index);
+  }
+  
+  /**
+   * Whether the line is past the last started line and is only covered by
+   * a run carried over from a started line.
+   */
+  private boolean isVirtual(int register, int line) {
+    if(line <= top) return false;
+    Track<Expression> track = values[register];
+    int index = track.find(line);
+    return index >= 0 && track.line(index) <= top;
+  }
+  
+  private void put(int register, int line, Expression expression, int stamp) {
+    Track<Expression> track = values[register];
+    if(line != top && track.find(line + 1) == track.find(line)) {
+      // Pin the following line to its current contents
+      track.put(line + 1, line + 1, value(register, line + 1), getUpdated(register, line + 1), false);
+    }
+    track.put(line, line, expression, stamp, line <= top);
+    if(line + 1 >= top) {
+      markDirty(register);
+    }
   }
   
   public Target getTarget(int register, int line) {
     if(!isLocal(register, line)) {
       throw new IllegalStateException("No declaration exists in register " + register + " at line " + line);
     }
-    return new VariableTarget(decls[register][line]);
+    return new VariableTarget(getDeclaration(register, line));
   }
   
   public void setInternalLoopVariable(int register, int begin, int end) {
@@ -192,13 +293,106 @@ public class Registers {
   }
   
   private void newDeclaration(Declaration decl, int register, int begin, int end) {
-    for(int line = begin; line <= end; line++) {
-      decls[register][line] = decl;
+    Track<Declaration> track = decls[register];
+    if(track.find(end + 1) == track.find(end)) {
+      track.put(end + 1, end + 1, getDeclaration(register, end + 1), 0, false);
     }
+    track.put(begin, end, decl, 0, true);
   }
   
   public Version getVersion() {
     return f.getVersion();
   }
   
+  /**
+   * One register's column, stored as runs: entry i holds from lines[i] until
+   * the next entry begins. Lines before the first entry are empty.
+   */
+  private static class Track<T> {
+    
+    private int size = 0;
+    private int[] lines = new int[4];
+    private Object[] values = new Object[4];
+    private int[] stamps = new int[4];
+    
+    @SuppressWarnings("unchecked")
+    static <T> Track<T>[] array(int length) {
+      return (Track<T>[]) new Track<?>[length];
+    }
+    
+    int size() {
+      return size;
+    }
+    
+    int line(int index) {
+      return lines[index];
+    }
+    
+    @SuppressWarnings("unchecked")
+    T value(int index) {
+      return (T) values[index];
+    }
+    
+    int stamp(int index) {
+      return stamps[index];
+    }
+    
+    /**
+     * Returns the index of the run covering the given line, or -1.
+     */
+    int find(int line) {
+      if(size == 0 || line < lines[0]) return -1;
+      if(line >= lines[size - 1]) return size - 1;
+      int lo = 0;
+      int hi = size - 1;
+      while(lo < hi) {
+        int mid = (lo + hi + 1) >>> 1;
+        if(lines[mid] <= line) {
+          lo = mid;
+        } else {
+          hi = mid - 1;
+        }
+      }
+      return lo;
+    }
+    
+    /**
+     * Sets lines begin through end. The caller is responsible for pinning
+     * end + 1 beforehand if its contents must survive. With coalesce, a value
+     * identical to the preceding run extends that run instead.
+     */
+    void put(int begin, int end, T value, int stamp, boolean coalesce) {
+      int first = find(begin - 1) + 1;
+      int last = first;
+      while(last < size && lines[last] <= end) {
+        last++;
+      }
+      boolean merge = coalesce && first > 0 && values[first - 1] == value && stamps[first - 1] == stamp;
+      int removed = last - first;
+      int added = merge ? 0 : 1;
+      if(size - removed + added > lines.length) {
+        int capacity = Math.max(lines.length * 2, size - removed + added);
+        lines = Arrays.copyOf(lines, capacity);
+        values = Arrays.copyOf(values, capacity);
+        stamps = Arrays.copyOf(stamps, capacity);
+      }
+      if(removed != added) {
+        System.arraycopy(lines, last, lines, first + added, size - last);
+        System.arraycopy(values, last, values, first + added, size - last);
+        System.arraycopy(stamps, last, stamps, first + added, size - last);
+        int newSize = size - removed + added;
+        for(int i = newSize; i < size; i++) {
+          values[i] = null;
+        }
+        size = newSize;
+      }
+      if(!merge) {
+        lines[first] = begin;
+        values[first] = value;
+        stamps[first] = stamp;
+      }
+    }
+    
+  }
+  
 }
@@ -1,105 +1,151 @@
 package unluac.decompile;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import unluac.parse.LFunction;
 import unluac.parse.LUpvalue;
 
 public class VariableFinder {
 
-  static class RegisterState {
-    
-    public RegisterState() {
-      last_written = 1;
-      last_read = -1;
-      read_count = 0;
-      temporary = false;
-      local = false;
-      read = false;
-      written = false;
-    }
-    
-    int last_written;
-    int last_read;
-    int read_count;
-    boolean temporary;
-    boolean local;
-    boolean read;
-    boolean written;
-  }
-  
+  /**
+   * Per-line, per-register analysis state, stored as parallel arrays indexed
+   * by (line - 1) * registers + register rather than one object per slot.
+   */
   static class RegisterStates {
     
     RegisterStates(int registers, int lines) {
       this.registers = registers;
       this.lines = lines;
-      states = new RegisterState[lines][registers];
-      for(int line = 0; line < lines; line++) {
-        for(int register = 0; register < registers; register++) {
-          states[line][register] = new RegisterState();
-        }
+      int size = lines * registers;
+      last_written = new int[size];
+      Arrays.fill(last_written, 1);
+      last_read = new int[size];
+      Arrays.fill(last_read, -1);
+      read_count = new int[size];
+      int words = (size + 63) >>> 6;
+      temporary = new long[words];
+      local = new long[words];
+      read = new long[words];
+      written = new long[words];
+    }
+    
+    private int index(int register, int line) {
+      if(register < 0 || register >= registers || line < 1 || line > lines) {
+        throw new ArrayIndexOutOfBoundsException();
       }
+      return (line - 1) * registers + register;
+    }
+    
+    private static boolean test(long[] bits, int index) {
+      return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+    
+    private static void set(long[] bits, int index) {
+      bits[index >>> 6] |= 1L << index;
+    }
+    
+    public int getLastWritten(int register, int line) {
+      return last_written[index(register, line)];
+    }
+    
+    public int getLastRead(int register, int line) {
+      return last_read[index(register, line)];
+    }
+    
+    public int getReadCount(int register, int line) {
+      return read_count[index(register, line)];
+    }
+    
+    public boolean isTemporary(int register, int line) {
+      return test(temporary, index(register, line));
+    }
+    
+    public boolean isLocal(int register, int line) {
+      return test(local, index(register, line));
+    }
+    
+    public boolean isRead(int register, int line) {
+      return test(read, index(register, line));
+    }
+    
+    public boolean isWritten(int register, int line) {
+      return test(written, index(register, line));
+    }
+    
+    public void flagRead(int register, int line) {
+      set(read, index(register, line));
     }
     
-    public RegisterState get(int register, int line) {
-      return states[line - 1][register];
+    public void flagWritten(int register, int line) {
+      set(written, index(register, line));
     }
     
     public void setWritten(int register, int line) {
-      get(register, line).written = true;
-      get(register, line + 1).last_written = line;
+      flagWritten(register, line);
+      last_written[index(register, line + 1)] = line;
     }
     
     public void setRead(int register, int line) {
-      get(register, line).read = true;
-      get(register, get(register, line).last_written).read_count++;
-      get(register, get(register, line).last_written).last_read = line;
+      flagRead(register, line);
+      int write = index(register, getLastWritten(register, line));
+      read_count[write]++;
+      last_read[write] = line;
     }
     
     public void setLocalRead(int register, int line) {
       for(int r = 0; r <= register; r++) {
-        get(r, get(r, line).last_written).local = true;
+        set(local, index(r, getLastWritten(r, line)));
       }
     }
     
     public void setLocalWrite(int register_min, int register_max, int line) {
       for(int r = 0; r < register_min; r++) {
-        get(r, get(r, line).last_written).local = true;
+        set(local, index(r, getLastWritten(r, line)));
       }
       for(int r = register_min; r <= register_max; r++) {
-        get(r, line).local = true;
+        set(local, index(r, line));
       }
     }
     
     public void setTemporaryRead(int register, int line) {
       for(int r = register; r < registers; r++) {
-        get(r, get(r, line).last_written).temporary = true;
+        set(temporary, index(r, getLastWritten(r, line)));
       }
     }
     
     public void setTemporaryWrite(int register_min, int register_max, int line) {
       for(int r = register_max + 1; r < registers; r++) {
-        get(r, get(r, line).last_written).temporary = true;
+        set(temporary, index(r, getLastWritten(r, line)));
       }
       for(int r = register_min; r <= register_max; r++) {
-        get(r, line).temporary = true;
+        set(temporary, index(r, line));
       }
     }
     
     public void nextLine(int line) {
       if(line + 1 < lines) {
+        int current = (line - 1) * registers;
+        int next = line * registers;
         for(int r = 0; r < registers; r++) {
-          if(get(r, line).last_written > get(r, line + 1).last_written) {
-            get(r, line + 1).last_written = get(r, line).last_written;
+          if(last_written[current + r] > last_written[next + r]) {
+            last_written[next + r] = last_written[current + r];
           }
         }
       }
     }
     
-    private int registers;
-    private int lines;
-    private RegisterState[][] states;
+    private final int registers;
+    private final int lines;
+    private final int[] last_written;
+    private final int[] last_read;
+    private final int[] read_count;
+    private final long[] temporary;
+    private final long[] local;
+    private final long[] read;
+    private final long[] written;
     
   }
   
@@ -182,8 +228,8 @@ public class VariableFinder {
         case UNM:
         case NOT:
         case LEN:
-          states.get(code.A(line), line).written = true;
-          states.get(code.B(line), line).read = true;
+          states.flagWritten(code.A(line), line);
+          states.flagRead(code.B(line), line);
           break;
         case CONCAT:
           states.setWritten(A, line);
@@ -213,13 +259,13 @@ public class VariableFinder {
           states.setRead(B, line);
           break;
         case CLOSURE: {
-          LFunction f = d.function.functions[code.Bx(line)];
+          LFunction f = d.function.getFunction(code.Bx(line));
           for(LUpvalue upvalue : f.upvalues) {
             if(upvalue.instack) {
               states.setLocalRead(upvalue.idx, line);
             }
           }
-          states.get(code.A(line), line).written = true;
+          states.flagWritten(code.A(line), line);
           break;
         }
         case CALL:
@@ -254,7 +300,7 @@ public class VariableFinder {
         case RETURN: {
           if(B == 0) B = registers - code.A(line) + 1;
           for(int register = A; register <= A + B - 2; register++) {
-            states.get(register, line).read = true;
+            states.flagRead(register, line);
           }
           break;
         }
@@ -267,9 +313,9 @@ for(int register = 0; register < registers; register++) {
     }
     for(int line = 1; line <= code.length(); line++) {
       for(int register = 0; register < registers; register++) {
-        RegisterState s = states.get(register, line);
-        if(s.written) {
-          if(s.read_count >= 2 || (line >= 2 && s.read_count == 0)) {
+        if(states.isWritten(register, line)) {
+          int read_count = states.getReadCount(register, line);
+          if(read_count >= 2 || (line >= 2 && read_count == 0)) {
             states.setLocalWrite(register, register, line);
           }
         }
@@ -277,12 +323,10 @@ for(int register = 0; register < registers; register++) {
     }
     for(int line = 1; line <= code.length(); line++) {
       for(int register = 0; register < registers; register++) {
-        RegisterState s = states.get(register, line);
-        if(s.written && s.temporary) {
+        if(states.isWritten(register, line) && states.isTemporary(register, line)) {
           List<Integer> ancestors = new ArrayList<Integer>();
           for(int read = 0; read < registers; read++) {
-            RegisterState r = states.get(read, line);
-            if(r.read && !r.local) {
+            if(states.isRead(read, line) && !states.isLocal(read, line)) {
               ancestors.add(read);
             }
           }
@@ -290,7 +334,7 @@ for(int register = 0; register < registers; register++) {
           for(pline = line - 1; pline >= 1; pline--) {
             boolean any_written = false;
             for(int pregister = 0; pregister < registers; pregister++) {
-              if(states.get(pregister, pline).written && ancestors.contains(pregister)) {
+              if(states.isWritten(pregister, pline) && ancestors.contains(pregister)) {
                 any_written = true;
                 ancestors.remove((Object)pregister);
               }
@@ -299,8 +343,7 @@ for(int register = 0; register < registers; register++) {
               break;
             }
             for(int pregister = 0; pregister < registers; pregister++) {
-              RegisterState a = states.get(pregister, pline); 
-              if(a.read && !a.local) {
+              if(states.isRead(pregister, pline) && !states.isLocal(pregister, pline)) {
                 ancestors.add(pregister);
               }
             }
@@ -316,12 +359,11 @@ for(int register = 0; register < registers; register++) {
     /*
     for(int register = 0; register < registers; register++) {
       for(int line = 1; line <= code.length(); line++) {
-        RegisterState s = states.get(register, line);
-        if(s.written || line == 1) {
-          System.out.println("WRITE r:" + register + " l:" + line + " .. " + s.last_read);
-          if(s.local) System.out.println("  LOCAL");
-          if(s.temporary) System.out.println("  TEMPORARY");
-          System.out.println("  READ_COUNT " + s.read_count);
+        if(states.isWritten(register, line) || line == 1) {
+          System.out.println("WRITE r:" + register + " l:" + line + " .. " + states.getLastRead(register, line));
+          if(states.isLocal(register, line)) System.out.println("  LOCAL");
+          if(states.isTemporary(register, line)) System.out.println("  TEMPORARY");
+          System.out.println("  READ_COUNT " + states.getReadCount(register, line));
         }
       }
     }
@@ -354,19 +396,18 @@ for(int register = 0; register < registers; register++) {
       }
       if(!local && !temporary) {
         for(int line = 1; line <= code.length(); line++) {
-          RegisterState state = states.get(register, line);
-          if(state.local) {
+          if(states.isLocal(register, line)) {
             temporary = false;
             local = true;
           }
-          if(state.temporary) {
+          if(states.isTemporary(register, line)) {
             start = line + 1;
             temporary = true;
           }
-          if(state.read) {
+          if(states.isRead(register, line)) {
             written = 0; read++;
           }
-          if(state.written) {
+          if(states.isWritten(register, line)) {
             if(written > 0 && read == 0) {
               temporary = false;
               local = true;
@@ -388,7 +429,7 @@ for(int register = 0; register < registers; register++) {
         if(is_arg) {
           name = "arg";
         } else {
-          name = id + register + "_" + lc++;
+          name = id + register + "_" + lc.getAndIncrement();
         }
         Declaration decl = new Declaration(name, start, code.length() + d.getVersion().outerblockscopeadjustment.get());
         decl.register = register;
@@ -403,7 +444,7 @@ for(int register = 0; register < registers; register++) {
     return declList.toArray(new Declaration[declList.size()]);
   }
   
-  static int lc = 0;
+  static final AtomicInteger lc = new AtomicInteger();
   
   private VariableFinder() {}
   
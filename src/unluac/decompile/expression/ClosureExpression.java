@@ -20,6 +20,10 @@ public class ClosureExpression extends Expression {
     this.upvalueLine = upvalueLine;
   }
 
+  public LFunction getFunction() {
+    return function;
+  }
+  
   @Override
   public void walk(Walker w) {
     w.visitExpression(this);
@@ -62,14 +66,14 @@ public class ClosureExpression extends Expression {
   
   @Override
   public void print(Decompiler outer, Output out) {
-    Decompiler d = new Decompiler(function, outer.declList, upvalueLine);
+    Decompiler d = outer.getChild(function, upvalueLine);
     out.print("function");
     printMain(out, d, true);
   }
   
   @Override
   public void printClosure(Decompiler outer, Output out, Target name) {
-    Decompiler d = new Decompiler(function, outer.declList, upvalueLine);
+    Decompiler d = outer.getChild(function, upvalueLine);
     out.print("function ");
     if(function.numParams >= 1 && d.declList[0].name.equals("self") && name instanceof TableTarget) {
       name.printMethod(outer, out);
@@ -80,6 +84,11 @@ public class ClosureExpression extends Expression {
     }
   }
   
+  public void printFunction(Decompiler d, Output out) {
+    out.print("function");
+    printMain(out, d, true);
+  }
+  
   private void printMain(Output out, Decompiler d, boolean includeFirst) {
     out.print("(");
     int start = includeFirst ? 0 : 1;
@@ -100,8 +109,7 @@ public class ClosureExpression extends Expression {
     out.print(")");
     out.println();
     out.indent();
-    Decompiler.State result = d.decompile();
-    d.print(result, out);
+    d.printNested(out);
     out.dedent();
     out.print("end");
     //out.println(); //This is an extra space for formatting
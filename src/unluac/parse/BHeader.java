@@ -10,6 +10,7 @@ import java.util.Map;
 
 import unluac.Configuration;
 import unluac.Configuration.Mode;
+import unluac.Stats;
 import unluac.Version;
 import unluac.assemble.Tokenizer;
 import unluac.decompile.CodeExtract;
@@ -43,6 +44,7 @@ public class BHeader {
   public final LFunctionType function;
   public final CodeExtract extractor;
   public final OpcodeMap opmap;
+  public final Stats stats;
   
   public final LFunction main;
   
@@ -52,6 +54,7 @@ public class BHeader {
   
   public BHeader(Version version, LHeader lheader, LFunction main) {
     this.config = null;
+    this.stats = null;
     this.version = version;
     this.lheader = lheader;
     this.lheader_type = version.getLHeaderType();
@@ -74,6 +77,8 @@ public class BHeader {
   
   public BHeader(ByteBuffer buffer, Configuration config) {
     this.config = config;
+    this.stats = config.stats != null ? new Stats() : null;
+    Stats.Timer timer = stats != null ? stats.begin(null, "parse") : null;
     // 4 byte Lua signature
     for(int i = 0; i < signature.length; i++) {
       if(buffer.get() != signature[i]) {
@@ -156,6 +161,9 @@ public class BHeader {
       main.upvalues[0].name = "_ENV";
     }
     main.setLevel(1);
+    if(stats != null) {
+      stats.end(timer);
+    }
   }
   
   public void write(OutputStream out) throws IOException {
@@ -8,8 +8,8 @@ public class BInteger extends BObject {
   private final BigInteger big;
   private final int n;
   
-  private static BigInteger MAX_INT = null;
-  private static BigInteger MIN_INT = null;
+  private static final BigInteger MAX_INT = BigInteger.valueOf(Integer.MAX_VALUE);
+  private static final BigInteger MIN_INT = BigInteger.valueOf(Integer.MIN_VALUE);
   
   public BInteger(BInteger b) {
     this.big = b.big;
@@ -24,9 +24,13 @@ public class BInteger extends BObject {
   public BInteger(BigInteger big) {
     this.big = big;
     this.n = 0;
-    if(MAX_INT == null) {
-      MAX_INT = BigInteger.valueOf(Integer.MAX_VALUE);
-      MIN_INT = BigInteger.valueOf(Integer.MIN_VALUE);
+  }
+  
+  public static BInteger valueOf(long x) {
+    if(Integer.MIN_VALUE <= x && x <= Integer.MAX_VALUE) {
+      return new BInteger((int) x);
+    } else {
+      return new BInteger(BigInteger.valueOf(x));
     }
   }
 
@@ -3,6 +3,7 @@ package unluac.parse;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
@@ -24,6 +25,37 @@ abstract public class BIntegerType extends BObjectType<BInteger> {
     return new BInteger(n);
   }
   
+  /**
+   * Parses a value that must fit in an int, without building a BInteger on
+   * the common paths.
+   */
+  public int parseInt(ByteBuffer buffer, BHeader header) {
+    return parse(buffer, header).asInt();
+  }
+  
+  /**
+   * Parses a list of these values straight into an array. The length is
+   * read with the header's integer type, as for parseList.
+   */
+  public int[] parseIntList(ByteBuffer buffer, BHeader header) {
+    int length = header.integer.parseInt(buffer, header);
+    if(length < 0) {
+      throw new IllegalStateException("Illegal negative list length");
+    }
+    if(length > buffer.remaining()) {
+      throw new BufferUnderflowException();
+    }
+    int[] values = new int[length];
+    for(int i = 0; i < length; i++) {
+      values[i] = parseInt(buffer, header);
+    }
+    return values;
+  }
+  
+  protected static IllegalStateException outOfRange() {
+    return new IllegalStateException("The size of an integer is outside the range that unluac can handle.");
+  }
+  
 }
 
 class BIntegerType50 extends BIntegerType {
@@ -57,6 +89,13 @@ class BIntegerType50 extends BIntegerType {
         default:
           throw new IllegalStateException();  
       }
+    } else if(intSize <= 8) {
+      long x = raw_long(buffer);
+      if(!signed && x < 0) {
+        value = new BInteger(new BigInteger(Long.toUnsignedString(x)));
+      } else {
+        value = BInteger.valueOf(x);
+      }
     } else {
       byte[] bytes = new byte[intSize];
       int start = 0;
@@ -82,6 +121,46 @@ class BIntegerType50 extends BIntegerType {
     return value;
   }
   
+  private long raw_long(ByteBuffer buffer) {
+    long x = 0;
+    if(buffer.order() == ByteOrder.LITTLE_ENDIAN) {
+      for(int i = 0; i < intSize; i++) {
+        x |= (0xFFL & buffer.get()) << (8 * i);
+      }
+    } else {
+      for(int i = 0; i < intSize; i++) {
+        x = (x << 8) | (0xFF & buffer.get());
+      }
+    }
+    if(signed && intSize > 0 && intSize < 8) {
+      int shift = 64 - 8 * intSize;
+      x = (x << shift) >> shift;
+    }
+    return x;
+  }
+  
+  @Override
+  public int parseInt(ByteBuffer buffer, BHeader header) {
+    long x;
+    if(signed && intSize == 4) {
+      x = buffer.getInt();
+    } else if(intSize <= 8) {
+      x = raw_long(buffer);
+      if(!signed && x < 0) {
+        throw outOfRange();
+      }
+    } else {
+      return parse(buffer, header).asInt();
+    }
+    if(!allownegative && x < 0) {
+      throw new IllegalStateException("Illegal number");
+    }
+    if(x < Integer.MIN_VALUE || x > Integer.MAX_VALUE) {
+      throw outOfRange();
+    }
+    return (int) x;
+  }
+  
   protected void raw_write(OutputStream out, BHeader header, BInteger object) throws IOException {
     byte[] bytes = object.littleEndianBytes(intSize);
     if(header.lheader.endianness == LHeader.LEndianness.LITTLE) {
@@ -125,18 +204,40 @@ class BIntegerType54 extends BIntegerType {
   @Override
   public BInteger parse(ByteBuffer buffer, BHeader header) {
     long x = 0;
+    BigInteger big = null;
     byte b;
     do {
       b = buffer.get();
-      x = (x << 7) | (b & 0x7F);
+      if(big == null && x > (Long.MAX_VALUE >> 7)) {
+        big = BigInteger.valueOf(x);
+      }
+      if(big != null) {
+        big = big.shiftLeft(7).or(BigInteger.valueOf(b & 0x7F));
+      } else {
+        x = (x << 7) | (b & 0x7F);
+      }
     } while((b & 0x80) == 0);
-    if(Integer.MIN_VALUE <= x && x <= Integer.MAX_VALUE) {
-      return new BInteger((int) x);
+    if(big != null) {
+      return new BInteger(big);
     } else {
-      return new BInteger(BigInteger.valueOf(x));
+      return BInteger.valueOf(x);
     }
   }
   
+  @Override
+  public int parseInt(ByteBuffer buffer, BHeader header) {
+    int x = 0;
+    byte b;
+    do {
+      b = buffer.get();
+      if(x > (Integer.MAX_VALUE >> 7)) {
+        throw outOfRange();
+      }
+      x = (x << 7) | (b & 0x7F);
+    } while((b & 0x80) == 0);
+    return x;
+  }
+  
   @Override
   public void write(OutputStream out, BHeader header, BInteger object) throws IOException {
     byte[] bytes = object.compressedBytes();
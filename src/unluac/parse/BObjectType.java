@@ -24,6 +24,10 @@ abstract public class BObjectType<T extends BObject>  {
   }
   
   public final BList<T> parseList(ByteBuffer buffer, BHeader header, Version.ListLengthMode mode, BInteger knownLength) {
+    return parseList(buffer, header, parseLength(buffer, header, mode, knownLength));
+  }
+  
+  private BInteger parseLength(ByteBuffer buffer, BHeader header, Version.ListLengthMode mode, BInteger knownLength) {
     BInteger length = header.integer.parse(buffer, header);
     switch(mode) {
       case STRICT:
@@ -36,7 +40,7 @@ abstract public class BObjectType<T extends BObject>  {
         if(length.signum() != 0) length = knownLength;
         break;
     }
-    return parseList(buffer, header, length);
+    return length;
   }
   
   public final BList<T> parseList(final ByteBuffer buffer, final BHeader header, BInteger length) {
@@ -52,6 +56,35 @@ abstract public class BObjectType<T extends BObject>  {
     return new BList<T>(length, values);
   }
   
+  /**
+   * Advances past an object without keeping it. Types that can be stepped
+   * over more cheaply than they can be built override this.
+   */
+  public void skip(ByteBuffer buffer, BHeader header) {
+    parse(buffer, header);
+  }
+  
+  public final BInteger skipList(ByteBuffer buffer, BHeader header) {
+    return skipList(buffer, header, Version.ListLengthMode.STRICT, null);
+  }
+  
+  public final BInteger skipList(ByteBuffer buffer, BHeader header, Version.ListLengthMode mode) {
+    return skipList(buffer, header, mode, null);
+  }
+  
+  public final BInteger skipList(final ByteBuffer buffer, final BHeader header, Version.ListLengthMode mode, BInteger knownLength) {
+    BInteger length = parseLength(buffer, header, mode, knownLength);
+    length.iterate(new Runnable() {
+      
+      @Override
+      public void run() {
+        skip(buffer, header);
+      }
+      
+    });
+    return length;
+  }
+  
   public final void writeList(OutputStream out, BHeader header, T[] array) throws IOException {
     header.integer.write(out, header, new BInteger(array.length));
     for(T object : array) {
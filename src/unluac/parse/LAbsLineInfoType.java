@@ -2,16 +2,32 @@ package unluac.parse;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 
 public class LAbsLineInfoType extends BObjectType<LAbsLineInfo> {
 
   @Override
   public LAbsLineInfo parse(ByteBuffer buffer, BHeader header) {
-    int pc = header.integer.parse(buffer, header).asInt();
-    int line = header.integer.parse(buffer, header).asInt();
+    int pc = header.integer.parseInt(buffer, header);
+    int line = header.integer.parseInt(buffer, header);
     return new LAbsLineInfo(pc, line);
   }
+  
+  public LAbsLineInfo[] parseArray(ByteBuffer buffer, BHeader header) {
+    int length = header.integer.parseInt(buffer, header);
+    if(length < 0) {
+      throw new IllegalStateException("Illegal negative list length");
+    }
+    if(length > buffer.remaining()) {
+      throw new BufferUnderflowException();
+    }
+    LAbsLineInfo[] array = new LAbsLineInfo[length];
+    for(int i = 0; i < length; i++) {
+      array[i] = parse(buffer, header);
+    }
+    return array;
+  }
 
   @Override
   public void write(OutputStream out, BHeader header, LAbsLineInfo object) throws IOException {
@@ -9,11 +9,15 @@ import unluac.Version;
 
 public abstract class LConstantType extends BObjectType<LObject> {
   
+  public static final LConstantType TYPE50 = new LConstantType50();
+  public static final LConstantType TYPE53 = new LConstantType53();
+  public static final LConstantType TYPE54 = new LConstantType54();
+  
   public static LConstantType get(Version.ConstantType type) {
     switch(type) {
-      case LUA50: return new LConstantType50();
-      case LUA53: return new LConstantType53();
-      case LUA54: return new LConstantType54();
+      case LUA50: return TYPE50;
+      case LUA53: return TYPE53;
+      case LUA54: return TYPE54;
       default: throw new IllegalStateException();
     }
   }
@@ -59,6 +63,16 @@ class LConstantType50 extends LConstantType {
     }
   }
   
+  @Override
+  public void skip(ByteBuffer buffer, BHeader header) {
+    if((0xFF & buffer.get(buffer.position())) == 4) {
+      buffer.get();
+      header.string.skip(buffer, header);
+    } else {
+      parse(buffer, header);
+    }
+  }
+  
   @Override
   public void write(OutputStream out, BHeader header, LObject object) throws IOException {
     if(object instanceof LNil) {
@@ -131,6 +145,17 @@ class LConstantType53 extends LConstantType {
     }
   }
   
+  @Override
+  public void skip(ByteBuffer buffer, BHeader header) {
+    int type = 0xFF & buffer.get(buffer.position());
+    if(type == 4 || type == 0x14) {
+      buffer.get();
+      header.string.skip(buffer, header);
+    } else {
+      parse(buffer, header);
+    }
+  }
+  
   @Override
   public void write(OutputStream out, BHeader header, LObject object) throws IOException {
     if(object instanceof LNil) {
@@ -186,6 +211,17 @@ class LConstantType54 extends LConstantType {
     }
   }
   
+  @Override
+  public void skip(ByteBuffer buffer, BHeader header) {
+    int type = 0xFF & buffer.get(buffer.position());
+    if(type == 4 || type == 0x14) {
+      buffer.get();
+      header.string.skip(buffer, header);
+    } else {
+      parse(buffer, header);
+    }
+  }
+  
   @Override
   public void write(OutputStream out, BHeader header, LObject object) throws IOException {
     if(object instanceof LNil) {
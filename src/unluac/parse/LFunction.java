@@ -1,5 +1,7 @@
 package unluac.parse;
 
+import java.nio.ByteBuffer;
+
 public class LFunction extends BObject {
   
   public BHeader header;
@@ -21,6 +23,11 @@ public class LFunction extends BObject {
   public boolean stripped;
   public int level;
   
+  private ByteBuffer source;
+  private int[] offsets;
+  private byte[] hash;
+  private byte[] full_hash;
+  
   public LFunction(BHeader header, LString name, int linedefined, int lastlinedefined, int[] code, int[] lines, LAbsLineInfo[] abslineinfo, LLocal[] locals, LObject[] constants, LUpvalue[] upvalues, LFunction[] functions, int maximumStackSize, int numUpValues, int numParams, int vararg) {
     this.header = header;
     this.name = name;
@@ -43,8 +50,66 @@ public class LFunction extends BObject {
   public void setLevel(int level) {
     this.level = level;
     for(LFunction f : functions) {
-      f.setLevel(level + 1);
+      if(f != null) {
+        f.setLevel(level + 1);
+      }
+    }
+  }
+  
+  /**
+   * Defers parsing of the nested functions to their first access; each
+   * offset is the position of a child prototype in the given buffer.
+   */
+  void defer(ByteBuffer source, int[] offsets) {
+    this.source = source;
+    this.offsets = offsets;
+  }
+  
+  public LFunction getFunction(int index) {
+    if(offsets == null) {
+      return functions[index];
+    }
+    synchronized(this) {
+      LFunction f = functions[index];
+      if(f == null) {
+        ByteBuffer buffer = source.duplicate().order(source.order());
+        buffer.position(offsets[index]);
+        f = header.function.parse(buffer, header);
+        f.parent = this;
+        f.setLevel(level + 1);
+        functions[index] = f;
+      }
+      return f;
+    }
+  }
+  
+  /**
+   * Returns the structural hash of this function and its nested functions:
+   * everything compared by unluac.test.Compare, including the debug line
+   * information and source name only if full is set. It is computed on first
+   * use and kept, so the function must not be modified after that.
+   */
+  public synchronized byte[] getHash(boolean full) {
+    if(full) {
+      if(full_hash == null) {
+        full_hash = LFunctionHash.compute(this, true);
+      }
+      return full_hash;
+    } else {
+      if(hash == null) {
+        hash = LFunctionHash.compute(this, false);
+      }
+      return hash;
+    }
+  }
+  
+  public LFunction[] getFunctions() {
+    if(offsets != null) {
+      for(int i = 0; i < functions.length; i++) {
+        getFunction(i);
+      }
     }
+    return functions;
   }
   
 }
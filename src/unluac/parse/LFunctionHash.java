@@ -0,0 +1,126 @@
+package unluac.parse;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Builds the structural hash of a function: a SHA-256 over an unambiguous
+ * encoding of the fields that unluac.test.Compare looks at, with each nested
+ * function represented by its own hash. Functions that hash the same are
+ * equal as far as Compare is concerned.
+ */
+class LFunctionHash {
+
+  private final MessageDigest digest;
+  private final byte[] buffer = new byte[8];
+
+  private LFunctionHash() {
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch(NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e.getMessage());
+    }
+  }
+
+  static byte[] compute(LFunction f, boolean full) {
+    LFunctionHash h = new LFunctionHash();
+    h.integer(f.maximumStackSize);
+    h.integer(f.numParams);
+    h.integer(f.numUpvalues);
+    h.integer(f.vararg);
+    h.integers(f.code);
+    h.integer(f.constants.length);
+    for(LObject constant : f.constants) {
+      h.object(constant);
+    }
+    h.integer(f.locals.length);
+    for(LLocal local : f.locals) {
+      h.integer(local.start);
+      h.integer(local.end);
+      h.object(local.name);
+    }
+    h.integer(f.upvalues.length);
+    for(LUpvalue upvalue : f.upvalues) {
+      h.integer(upvalue.instack ? 1 : 0);
+      h.integer(upvalue.idx);
+      h.integer(upvalue.kind);
+      h.string(upvalue.name);
+    }
+    h.integer(f.functions.length);
+    for(int i = 0; i < f.functions.length; i++) {
+      h.digest.update(f.getFunction(i).getHash(full));
+    }
+    if(full) {
+      h.object(f.name);
+      h.integer(f.linedefined);
+      h.integer(f.lastlinedefined);
+      h.integers(f.lines);
+      if(f.abslineinfo == null) {
+        h.integer(-1);
+      } else {
+        h.integer(f.abslineinfo.length);
+        for(LAbsLineInfo info : f.abslineinfo) {
+          h.integer(info.pc);
+          h.integer(info.line);
+        }
+      }
+    }
+    return h.digest.digest();
+  }
+
+  private void integer(int value) {
+    buffer[0] = (byte) (value >>> 24);
+    buffer[1] = (byte) (value >>> 16);
+    buffer[2] = (byte) (value >>> 8);
+    buffer[3] = (byte) value;
+    digest.update(buffer, 0, 4);
+  }
+
+  private void integer(long value) {
+    integer((int) (value >>> 32));
+    integer((int) value);
+  }
+
+  private void integers(int[] values) {
+    integer(values.length);
+    for(int value : values) {
+      integer(value);
+    }
+  }
+
+  private void string(String value) {
+    if(value == null) {
+      integer(-1);
+    } else {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_16BE);
+      integer(bytes.length);
+      digest.update(bytes);
+    }
+  }
+
+  private void object(LObject o) {
+    if(o == null) {
+      integer(-1);
+    } else if(o == LNil.NIL) {
+      integer(0);
+    } else if(o instanceof LBoolean) {
+      integer(1);
+      integer(((LBoolean) o).value() ? 1 : 0);
+    } else if(o == LString.NULL) {
+      integer(2);
+    } else if(o instanceof LString) {
+      LString s = (LString) o;
+      integer(3);
+      integer(s.islong ? 1 : 0);
+      string(s.value);
+    } else if(o instanceof LNumber) {
+      LNumber n = (LNumber) o;
+      integer(4 + n.representation());
+      integer(n.bits());
+    } else {
+      throw new IllegalStateException("unhashable constant: " + o);
+    }
+  }
+
+}
@@ -2,6 +2,7 @@ package unluac.parse;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
@@ -12,13 +13,19 @@ import unluac.assemble.Directive;
 
 abstract public class LFunctionType extends BObjectType<LFunction> {
   
+  public static final LFunctionType TYPE50 = new LFunctionType50();
+  public static final LFunctionType TYPE51 = new LFunctionType51();
+  public static final LFunctionType TYPE52 = new LFunctionType52();
+  public static final LFunctionType TYPE53 = new LFunctionType53();
+  public static final LFunctionType TYPE54 = new LFunctionType54();
+  
   public static LFunctionType get(Version.FunctionType type) {
     switch(type) {
-      case LUA50: return new LFunctionType50();
-      case LUA51: return new LFunctionType51();
-      case LUA52: return new LFunctionType52();
-      case LUA53: return new LFunctionType53();
-      case LUA54: return new LFunctionType54();
+      case LUA50: return TYPE50;
+      case LUA51: return TYPE51;
+      case LUA52: return TYPE52;
+      case LUA53: return TYPE53;
+      case LUA54: return TYPE54;
       default: throw new IllegalStateException();
     }
   }
@@ -36,10 +43,12 @@ abstract public class LFunctionType extends BObjectType<LFunction> {
     int[] code;
     BList<LObject> constants;
     BList<LFunction> functions;
-    BList<BInteger> lines;
-    BList<LAbsLineInfo> abslineinfo;
+    int[] lines;
+    LAbsLineInfo[] abslineinfo;
     BList<LLocal> locals;
     LUpvalue upvalues[];
+    int[] offsets;
+    boolean skip;
   }
   
   @Override
@@ -52,33 +61,64 @@ abstract public class LFunctionType extends BObjectType<LFunction> {
     }
     LFunctionParseState s = new LFunctionParseState();
     parse_main(buffer, header, s);
-    int[] lines = new int[s.lines.length.asInt()];
-    for(int i = 0; i < lines.length; i++) {
-      lines[i] = s.lines.get(i).asInt();
-    }
-    LAbsLineInfo[] abslineinfo = null;
-    if(s.abslineinfo != null) {
-      abslineinfo = s.abslineinfo.asArray(new LAbsLineInfo[s.abslineinfo.length.asInt()]);
+    LFunction[] functions;
+    if(s.offsets != null) {
+      functions = new LFunction[s.offsets.length];
+    } else {
+      functions = s.functions.asArray(new LFunction[Math.max(0, s.functions.length.asInt())]);
     }
-    LFunction lfunc = new LFunction(header, s.name, s.lineBegin, s.lineEnd, s.code, lines, abslineinfo, s.locals.asArray(new LLocal[Math.max(0, s.locals.length.asInt())]), s.constants.asArray(new LObject[Math.max(0, s.constants.length.asInt())]), s.upvalues, s.functions.asArray(new LFunction[Math.max(0, s.functions.length.asInt())]), s.maximumStackSize, s.lenUpvalues, s.lenParameter, s.vararg);
-    for(LFunction child : lfunc.functions) {
-      child.parent = lfunc;
+    LFunction lfunc = new LFunction(header, s.name, s.lineBegin, s.lineEnd, s.code, s.lines, s.abslineinfo, s.locals.asArray(new LLocal[Math.max(0, s.locals.length.asInt())]), s.constants.asArray(new LObject[Math.max(0, s.constants.length.asInt())]), s.upvalues, functions, s.maximumStackSize, s.lenUpvalues, s.lenParameter, s.vararg);
+    if(s.offsets != null) {
+      lfunc.defer(buffer.duplicate().order(buffer.order()), s.offsets);
+    } else {
+      for(LFunction child : lfunc.functions) {
+        child.parent = lfunc;
+      }
     }
-    if(s.lines.length.asInt() == 0 && s.locals.length.asInt() == 0) {
+    if(s.lines.length == 0 && s.locals.length.asInt() == 0) {
       lfunc.stripped = true;
     }
     return lfunc;
   }
   
+  /**
+   * Steps over a function without building it, still checking every list
+   * length against the data that remains.
+   */
+  @Override
+  public void skip(ByteBuffer buffer, BHeader header) {
+    LFunctionParseState s = new LFunctionParseState();
+    s.skip = true;
+    parse_main(buffer, header, s);
+  }
+  
   abstract public List<Directive> get_directives();
   
   abstract protected void parse_main(ByteBuffer buffer, BHeader header, LFunctionParseState s);
   
+  protected void parse_name(ByteBuffer buffer, BHeader header, LFunctionParseState s) {
+    if(s.skip) {
+      header.string.skip(buffer, header);
+    } else {
+      s.name = header.string.parse(buffer, header);
+    }
+  }
+  
   protected void parse_code(ByteBuffer buffer, BHeader header, LFunctionParseState s) {
     if(header.debug) {
       System.out.println("-- beginning to parse bytecode list");
     }
-    s.length = header.integer.parse(buffer, header).asInt();
+    s.length = header.integer.parseInt(buffer, header);
+    if(s.skip) {
+      if(s.length < 0) {
+        throw new IllegalStateException("Illegal negative list length");
+      }
+      if(4L * s.length > buffer.remaining()) {
+        throw new BufferUnderflowException();
+      }
+      buffer.position(buffer.position() + 4 * s.length);
+      return;
+    }
     s.code = new int[s.length];
     for(int i = 0; i < s.length; i++) {
       s.code[i] = buffer.getInt();
@@ -110,19 +150,46 @@ abstract public class LFunctionType extends BObjectType<LFunction> {
     if(header.debug) {
       System.out.println("-- beginning to parse constants list");
     }
-    s.constants = header.constant.parseList(buffer, header);
+    parse_constant_list(buffer, header, s);
     if(header.debug) {
       System.out.println("-- beginning to parse functions list");
     }
-    s.functions = header.function.parseList(buffer, header);
+    parse_function_list(buffer, header, s);
+  }
+  
+  protected void parse_constant_list(ByteBuffer buffer, BHeader header, LFunctionParseState s) {
+    if(s.skip) {
+      header.constant.skipList(buffer, header);
+    } else {
+      s.constants = header.constant.parseList(buffer, header);
+    }
+  }
+  
+  protected void parse_function_list(ByteBuffer buffer, BHeader header, LFunctionParseState s) {
+    if(s.skip) {
+      header.function.skipList(buffer, header);
+    } else if(header.config != null && header.config.lazy) {
+      int length = header.integer.parseInt(buffer, header);
+      if(length < 0) {
+        throw new IllegalStateException("Illegal negative list length");
+      }
+      s.offsets = new int[length];
+      for(int i = 0; i < length; i++) {
+        s.offsets[i] = buffer.position();
+        header.function.skip(buffer, header);
+      }
+    } else {
+      s.functions = header.function.parseList(buffer, header);
+    }
   }
   
   protected void write_constants(OutputStream out, BHeader header, LFunction object) throws IOException {
     header.constant.writeList(out, header, object.constants);
-    header.function.writeList(out, header, object.functions);
+    header.function.writeList(out, header, object.getFunctions());
   }
   
   protected void create_upvalues(ByteBuffer buffer, BHeader header, LFunctionParseState s) {
+    if(s.skip) return;
     s.upvalues = new LUpvalue[s.lenUpvalues];
     for(int i = 0; i < s.lenUpvalues; i++) {
       s.upvalues[i] = new LUpvalue();
@@ -130,6 +197,10 @@ abstract public class LFunctionType extends BObjectType<LFunction> {
   }
   
   protected void parse_upvalues(ByteBuffer buffer, BHeader header, LFunctionParseState s) {
+    if(s.skip) {
+      s.lenUpvalues = header.upvalue.skipList(buffer, header).asInt();
+      return;
+    }
     BList<LUpvalue> upvalues = header.upvalue.parseList(buffer, header);
     s.lenUpvalues = upvalues.length.asInt();
     s.upvalues = upvalues.asArray(new LUpvalue[s.lenUpvalues]);
@@ -140,10 +211,16 @@ abstract public class LFunctionType extends BObjectType<LFunction> {
   }
   
   protected void parse_debug(ByteBuffer buffer, BHeader header, LFunctionParseState s) {
+    if(s.skip) {
+      header.integer.skipList(buffer, header);
+      header.local.skipList(buffer, header, header.version.locallengthmode.get());
+      parse_upvalue_names(buffer, header, s);
+      return;
+    }
     if(header.debug) {
       System.out.println("-- beginning to parse source lines list");
     }
-    s.lines = header.integer.parseList(buffer, header);
+    s.lines = header.integer.parseIntList(buffer, header);
     if(header.debug) {
       System.out.println("-- beginning to parse locals list");
     }
@@ -155,6 +232,10 @@ abstract public class LFunctionType extends BObjectType<LFunction> {
     if(header.debug) {
       System.out.println("-- beginning to parse upvalue names list");
     }
+    if(s.skip) {
+      header.string.skipList(buffer, header, header.version.upvaluelengthmode.get(), new BInteger(s.lenUpvalues));
+      return;
+    }
     BList<LString> upvalueNames = header.string.parseList(buffer, header, header.version.upvaluelengthmode.get(), new BInteger(s.lenUpvalues));
     for(int i = 0; i < Math.min(s.upvalues.length, upvalueNames.length.asInt()); i++) {
       s.upvalues[i].bname = upvalueNames.get(i);
@@ -188,8 +269,8 @@ class LFunctionType50 extends LFunctionType {
 
   @Override
   protected void parse_main(ByteBuffer buffer, BHeader header, LFunctionParseState s) {
-    s.name = header.string.parse(buffer, header);
-    s.lineBegin = header.integer.parse(buffer, header).asInt();
+    parse_name(buffer, header, s);
+    s.lineBegin = header.integer.parseInt(buffer, header);
     s.lineEnd = 0;
     s.lenUpvalues = 0xFF & buffer.get();
     create_upvalues(buffer, header, s);
@@ -230,9 +311,9 @@ class LFunctionType50 extends LFunctionType {
 class LFunctionType51 extends LFunctionType {
   
   protected void parse_main(ByteBuffer buffer, BHeader header, LFunctionParseState s) {
-    s.name = header.string.parse(buffer, header);
-    s.lineBegin = header.integer.parse(buffer, header).asInt();
-    s.lineEnd = header.integer.parse(buffer, header).asInt();
+    parse_name(buffer, header, s);
+    s.lineBegin = header.integer.parseInt(buffer, header);
+    s.lineEnd = header.integer.parseInt(buffer, header);
     s.lenUpvalues = 0xFF & buffer.get();
     create_upvalues(buffer, header, s);
     s.lenParameter = 0xFF & buffer.get();
@@ -274,15 +355,15 @@ class LFunctionType51 extends LFunctionType {
 class LFunctionType52 extends LFunctionType {
   
   protected void parse_main(ByteBuffer buffer, BHeader header, LFunctionParseState s) {
-    s.lineBegin = header.integer.parse(buffer, header).asInt();
-    s.lineEnd = header.integer.parse(buffer, header).asInt();
+    s.lineBegin = header.integer.parseInt(buffer, header);
+    s.lineEnd = header.integer.parseInt(buffer, header);
     s.lenParameter = 0xFF & buffer.get();
     s.vararg = 0xFF & buffer.get();
     s.maximumStackSize = 0xFF & buffer.get();
     parse_code(buffer, header, s);
     parse_constants(buffer, header, s);
     parse_upvalues(buffer, header, s);
-    s.name = header.string.parse(buffer, header);
+    parse_name(buffer, header, s);
     parse_debug(buffer, header, s);
   }
   
@@ -317,16 +398,16 @@ class LFunctionType52 extends LFunctionType {
 class LFunctionType53 extends LFunctionType {
   
   protected void parse_main(ByteBuffer buffer, BHeader header, LFunctionParseState s) {
-    s.name = header.string.parse(buffer, header); //TODO: psource
-    s.lineBegin = header.integer.parse(buffer, header).asInt();
-    s.lineEnd = header.integer.parse(buffer, header).asInt();
+    parse_name(buffer, header, s); //TODO: psource
+    s.lineBegin = header.integer.parseInt(buffer, header);
+    s.lineEnd = header.integer.parseInt(buffer, header);
     s.lenParameter = 0xFF & buffer.get();
     s.vararg = 0xFF & buffer.get();
     s.maximumStackSize = 0xFF & buffer.get();
     parse_code(buffer, header, s);
-    s.constants = header.constant.parseList(buffer, header);
+    parse_constant_list(buffer, header, s);
     parse_upvalues(buffer, header, s);
-    s.functions = header.function.parseList(buffer, header);
+    parse_function_list(buffer, header, s);
     parse_debug(buffer, header, s);
   }
   
@@ -353,7 +434,7 @@ class LFunctionType53 extends LFunctionType {
     write_code(out, header, object);
     header.constant.writeList(out, header, object.constants);
     write_upvalues(out, header, object);
-    header.function.writeList(out, header, object.functions);
+    header.function.writeList(out, header, object.getFunctions());
     write_debug(out, header, object);
   }
   
@@ -361,11 +442,20 @@ class LFunctionType53 extends LFunctionType {
 
 class LFunctionType54 extends LFunctionType {
   
+  private static final BIntegerType lineinfo = new BIntegerType50(false, 1, false);
+  
   @Override
   protected void parse_debug(ByteBuffer buffer, BHeader header, LFunctionParseState s) {
+    if(s.skip) {
+      lineinfo.skipList(buffer, header);
+      header.abslineinfo.skipList(buffer, header);
+      header.local.skipList(buffer, header);
+      parse_upvalue_names(buffer, header, s);
+      return;
+    }
     // TODO: process line info correctly
-    s.lines = (new BIntegerType50(false, 1, false)).parseList(buffer, header);
-    s.abslineinfo = header.abslineinfo.parseList(buffer, header);
+    s.lines = lineinfo.parseIntList(buffer, header);
+    s.abslineinfo = header.abslineinfo.parseArray(buffer, header);
     s.locals = header.local.parseList(buffer, header);
     parse_upvalue_names(buffer, header, s);
   }
@@ -393,16 +483,16 @@ class LFunctionType54 extends LFunctionType {
   }
   
   protected void parse_main(ByteBuffer buffer, BHeader header, LFunctionParseState s) {
-    s.name = header.string.parse(buffer, header);
-    s.lineBegin = header.integer.parse(buffer, header).asInt();
-    s.lineEnd = header.integer.parse(buffer, header).asInt();
+    parse_name(buffer, header, s);
+    s.lineBegin = header.integer.parseInt(buffer, header);
+    s.lineEnd = header.integer.parseInt(buffer, header);
     s.lenParameter = 0xFF & buffer.get();
     s.vararg = 0xFF & buffer.get();
     s.maximumStackSize = 0xFF & buffer.get();
     parse_code(buffer, header, s);
-    s.constants = header.constant.parseList(buffer, header);
+    parse_constant_list(buffer, header, s);
     parse_upvalues(buffer, header, s);
-    s.functions = header.function.parseList(buffer, header);
+    parse_function_list(buffer, header, s);
     parse_debug(buffer, header, s);
   }
   
@@ -429,7 +519,7 @@ class LFunctionType54 extends LFunctionType {
     write_code(out, header, object);
     header.constant.writeList(out, header, object.constants);
     write_upvalues(out, header, object);
-    header.function.writeList(out, header, object.functions);
+    header.function.writeList(out, header, object.getFunctions());
     write_debug(out, header, object);
   }
   
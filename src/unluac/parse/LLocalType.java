@@ -21,6 +21,13 @@ public class LLocalType extends BObjectType<LLocal> {
     return new LLocal(name, start, end);
   }
   
+  @Override
+  public void skip(ByteBuffer buffer, BHeader header) {
+    header.string.skip(buffer, header);
+    header.integer.parse(buffer, header);
+    header.integer.parse(buffer, header);
+  }
+  
   @Override
   public void write(OutputStream out, BHeader header, LLocal object) throws IOException {
     header.string.write(out, header, object.name);
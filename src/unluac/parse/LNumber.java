@@ -21,6 +21,12 @@ public abstract class LNumber extends LObject {
   public abstract boolean integralType();
   
   public abstract long bits();
+  
+  /**
+   * Distinguishes the representations of numbers, so that with bits() it
+   * identifies a number exactly.
+   */
+  abstract int representation();
 }
 
 class LFloatNumber extends LNumber {
@@ -96,6 +102,11 @@ class LFloatNumber extends LNumber {
     return Float.floatToRawIntBits(number);
   }
   
+  @Override
+  int representation() {
+    return 0;
+  }
+  
 }
 
 class LDoubleNumber extends LNumber {
@@ -170,6 +181,11 @@ class LDoubleNumber extends LNumber {
     return Double.doubleToRawLongBits(number);
   }
   
+  @Override
+  int representation() {
+    return 1;
+  }
+  
 }
 
 class LIntNumber extends LNumber {
@@ -210,6 +226,11 @@ class LIntNumber extends LNumber {
     return number;
   }
   
+  @Override
+  int representation() {
+    return 2;
+  }
+  
 }
 
 class LLongNumber extends LNumber {
@@ -250,4 +271,9 @@ class LLongNumber extends LNumber {
     return number;
   }
   
+  @Override
+  int representation() {
+    return 3;
+  }
+  
 }
\ No newline at end of file
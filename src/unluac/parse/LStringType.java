@@ -2,54 +2,85 @@ package unluac.parse;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 import unluac.Version;
 
 
 public abstract class LStringType extends BObjectType<LString> {
 
+  public static final LStringType TYPE50 = new LStringType50();
+  public static final LStringType TYPE53 = new LStringType53();
+  public static final LStringType TYPE54 = new LStringType54();
+  
   public static LStringType get(Version.StringType type) {
     switch(type) {
-      case LUA50: return new LStringType50();
-      case LUA53: return new LStringType53();
-      case LUA54: return new LStringType54();
+      case LUA50: return TYPE50;
+      case LUA53: return TYPE53;
+      case LUA54: return TYPE54;
       default: throw new IllegalStateException();
     }
   }
   
-  protected ThreadLocal<StringBuilder> b = new ThreadLocal<StringBuilder>() {
+  private static final ThreadLocal<byte[]> scratch = new ThreadLocal<byte[]>() {
     
     @Override
-    protected StringBuilder initialValue() {
-      return new StringBuilder();  
+    protected byte[] initialValue() {
+      return new byte[256];
     }
 
   };
   
+  /**
+   * Reads the given number of bytes as a string, one char per byte. Heap
+   * buffers are decoded in place; others go through a reusable array.
+   */
+  protected static String read(ByteBuffer buffer, int length) {
+    check(buffer, length);
+    String s;
+    if(buffer.hasArray()) {
+      s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.ISO_8859_1);
+      buffer.position(buffer.position() + length);
+    } else {
+      byte[] bytes = scratch.get();
+      if(bytes.length < length) {
+        bytes = new byte[Math.max(length, bytes.length * 2)];
+        scratch.set(bytes);
+      }
+      buffer.get(bytes, 0, length);
+      s = new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+    }
+    return s;
+  }
+  
+  protected static void advance(ByteBuffer buffer, int length) {
+    check(buffer, length);
+    buffer.position(buffer.position() + length);
+  }
+  
+  private static void check(ByteBuffer buffer, int length) {
+    if(length < 0) {
+      throw new IllegalStateException("Illegal negative list length");
+    }
+    if(length > buffer.remaining()) {
+      throw new BufferUnderflowException();
+    }
+  }
+  
 }
 
 class LStringType50 extends LStringType {
   
   @Override
-  public LString parse(final ByteBuffer buffer, BHeader header) {
-    BInteger sizeT = header.sizeT.parse(buffer, header);
-    final StringBuilder b = this.b.get();
-    b.setLength(0);
-    sizeT.iterate(new Runnable() {
-      
-      @Override
-      public void run() {
-        b.append((char) (0xFF & buffer.get()));
-      }
-      
-    });
-    if(b.length() == 0) {
+  public LString parse(ByteBuffer buffer, BHeader header) {
+    int size = header.sizeT.parseInt(buffer, header);
+    if(size == 0) {
       return LString.NULL;
     } else {
-      char last = b.charAt(b.length() - 1);
-      b.delete(b.length() - 1, b.length());
-      String s = b.toString();
+      String s = read(buffer, size - 1);
+      char last = (char) (0xFF & buffer.get());
       if(header.debug) {
         System.out.println("-- parsed <string> \"" + s + "\"");
       }
@@ -57,6 +88,14 @@ class LStringType50 extends LStringType {
     }
   }
   
+  @Override
+  public void skip(ByteBuffer buffer, BHeader header) {
+    int size = header.sizeT.parseInt(buffer, header);
+    if(size != 0) {
+      advance(buffer, size);
+    }
+  }
+  
   @Override
   public void write(OutputStream out, BHeader header, LString string) throws IOException {
     int len = string.value.length();
@@ -75,39 +114,31 @@ class LStringType50 extends LStringType {
 class LStringType53 extends LStringType {
   
   @Override
-  public LString parse(final ByteBuffer buffer, BHeader header) {
-    BInteger sizeT;
-    int size = 0xFF & buffer.get();
-    if(size == 0) {
+  public LString parse(ByteBuffer buffer, BHeader header) {
+    int length = 0xFF & buffer.get();
+    if(length == 0) {
       return LString.NULL;
-    } else if(size == 0xFF) {
-      sizeT = header.sizeT.parse(buffer, header);
-    } else {
-      sizeT = new BInteger(size);
-    }
-    final StringBuilder b = this.b.get();
-    b.setLength(0);
-    sizeT.iterate(new Runnable() {
-      
-      boolean first = true;
-      
-      @Override
-      public void run() {
-        if(!first) {
-          b.append((char) (0xFF & buffer.get()));
-        } else {
-          first = false;
-        }
-      }
-      
-    });
-    String s = b.toString();
+    } else if(length == 0xFF) {
+      length = header.sizeT.parseInt(buffer, header);
+    }
+    String s = read(buffer, length == 0 ? 0 : length - 1);
     if(header.debug) {
       System.out.println("-- parsed <string> \"" + s + "\"");
     }
     return new LString(s);
   }
   
+  @Override
+  public void skip(ByteBuffer buffer, BHeader header) {
+    int size = 0xFF & buffer.get();
+    if(size == 0xFF) {
+      size = header.sizeT.parseInt(buffer, header);
+    }
+    if(size != 0) {
+      advance(buffer, size - 1);
+    }
+  }
+  
   @Override
   public void write(OutputStream out, BHeader header, LString string) throws IOException {
     int len = string.value.length() + 1;
@@ -126,34 +157,26 @@ class LStringType53 extends LStringType {
 class LStringType54 extends LStringType {
   
   @Override
-  public LString parse(final ByteBuffer buffer, BHeader header) {
-    BInteger sizeT = header.sizeT.parse(buffer, header);
-    if(sizeT.asInt() == 0) {
+  public LString parse(ByteBuffer buffer, BHeader header) {
+    int size = header.sizeT.parseInt(buffer, header);
+    if(size == 0) {
       return LString.NULL;
     }
-    final StringBuilder b = this.b.get();
-    b.setLength(0);
-    sizeT.iterate(new Runnable() {
-      
-      boolean first = true;
-      
-      @Override
-      public void run() {
-        if(!first) {
-          b.append((char) (0xFF & buffer.get()));
-        } else {
-          first = false;
-        }
-      }
-      
-    });
-    String s = b.toString();
+    String s = read(buffer, size - 1);
     if(header.debug) {
       System.out.println("-- parsed <string> \"" + s + "\"");
     }
     return new LString(s);
   }
   
+  @Override
+  public void skip(ByteBuffer buffer, BHeader header) {
+    int size = header.sizeT.parseInt(buffer, header);
+    if(size != 0) {
+      advance(buffer, size - 1);
+    }
+  }
+  
   @Override
   public void write(OutputStream out, BHeader header, LString string) throws IOException {
     if(string == LString.NULL) {
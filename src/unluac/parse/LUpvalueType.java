@@ -8,10 +8,13 @@ import unluac.Version;
 
 public abstract class LUpvalueType extends BObjectType<LUpvalue> {
   
+  public static final LUpvalueType TYPE50 = new LUpvalueType50();
+  public static final LUpvalueType TYPE54 = new LUpvalueType54();
+  
   public static LUpvalueType get(Version.UpvalueType type) {
     switch(type) {
-      case LUA50: return new LUpvalueType50();
-      case LUA54: return new LUpvalueType54();
+      case LUA50: return TYPE50;
+      case LUA54: return TYPE54;
       default: throw new IllegalStateException();
     }
   }
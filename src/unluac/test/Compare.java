@@ -3,11 +3,13 @@ package unluac.test;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import unluac.Configuration;
-import unluac.parse.BHeader;
+import unluac.Main;
 import unluac.parse.LFunction;
 import unluac.parse.LLocal;
 import unluac.parse.LObject;
@@ -35,7 +37,61 @@ public class Compare {
     return function_equal(main1, main2);
   }
 
+  /**
+   * Returns the paths (as used by --function) of the functions that differ
+   * between two files of lua bytecode, without descending into nested
+   * functions that are the same. A function is listed if it differs other
+   * than in its nested functions, or if it is only in one of the files.
+   */
+  public List<String> bytecode_diff(String file1, String file2) {
+    List<String> paths = new ArrayList<String>();
+    function_diff(file_to_function(file1), file_to_function(file2), "main", paths);
+    return paths;
+  }
+  
+  public void function_diff(LFunction f1, LFunction f2, String path, List<String> paths) {
+    if(hash_equal(f1, f2)) {
+      return;
+    }
+    if(!own_equal(f1, f2)) {
+      paths.add(path);
+    }
+    int common = Math.min(f1.functions.length, f2.functions.length);
+    for(int i = 0; i < common; i++) {
+      function_diff(f1.getFunction(i), f2.getFunction(i), path + "/f" + i, paths);
+    }
+    for(int i = common; i < Math.max(f1.functions.length, f2.functions.length); i++) {
+      paths.add(path + "/f" + i);
+    }
+  }
+  
   public boolean function_equal(LFunction f1, LFunction f2) {
+    if(hash_equal(f1, f2)) {
+      return true;
+    }
+    if(!own_equal(f1, f2)) {
+      return false;
+    }
+    if(f1.functions.length != f2.functions.length) {
+      return false;
+    }
+    for(int i = 0; i < f1.functions.length; i++) {
+      if(!function_equal(f1.getFunction(i), f2.getFunction(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  /**
+   * Equal hashes mean equal functions; different hashes don't quite mean
+   * different functions, as numbers of different types can compare equal.
+   */
+  private boolean hash_equal(LFunction f1, LFunction f2) {
+    return Arrays.equals(f1.getHash(mode == Mode.FULL), f2.getHash(mode == Mode.FULL));
+  }
+  
+  private boolean own_equal(LFunction f1, LFunction f2) {
     if(f1.maximumStackSize != f2.maximumStackSize) {
       return false;
     }
@@ -80,14 +136,6 @@ public class Compare {
         return false;
       }
     }
-    if(f1.functions.length != f2.functions.length) {
-      return false;
-    }
-    for(int i = 0; i < f1.functions.length; i++) {
-      if(!function_equal(f1.functions[i], f2.functions[i])) {
-        return false;
-      }
-    }
     if(mode == Mode.FULL) {
       if(!f1.name.equals(f2.name)) {
         return false;
@@ -144,14 +192,9 @@ public class Compare {
     RandomAccessFile file = null;
     try {
       file = new RandomAccessFile(filename, "r");
-      ByteBuffer buffer = ByteBuffer.allocate((int) file.length());
-      buffer.order(ByteOrder.LITTLE_ENDIAN);
-      int len = (int) file.length();
       FileChannel in = file.getChannel();
-      while(len > 0) len -= in.read(buffer);
-      buffer.rewind();
-      BHeader header = new BHeader(buffer, new Configuration());
-      return header.main;
+      ByteBuffer buffer = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+      return Main.buffer_to_function(buffer, new Configuration());
     } catch(IOException e) {
       return null;
     } finally {
@@ -163,4 +206,21 @@ public class Compare {
     }
   }
   
+  public static void main(String[] args) {
+    Mode mode = Mode.NORMAL;
+    int first = 0;
+    if(args.length == 3 && args[0].equals("--full")) {
+      mode = Mode.FULL;
+      first = 1;
+    } else if(args.length != 2) {
+      System.err.println("usage: Compare [--full] <file1> <file2>");
+      System.exit(1);
+    }
+    List<String> paths = new Compare(mode).bytecode_diff(args[first], args[first + 1]);
+    for(String path : paths) {
+      System.out.println(path);
+    }
+    System.exit(paths.isEmpty() ? 0 : 1);
+  }
+  
 }
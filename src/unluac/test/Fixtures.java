@@ -0,0 +1,90 @@
+package unluac.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Compiled reference bytecode for test sources, keyed by a hash of the
+ * source, the spec's luac name and its flags. A test compiles its source
+ * through here, so luac only runs the first time; with the fixtures checked
+ * in, the tests can decompile with no luac installed at all. The key does not
+ * depend on where luac is installed. Instead each fixture records what its
+ * luac printed for -v, and is compiled again if an installed luac now prints
+ * something else.
+ */
+public class Fixtures {
+
+  private final File dir;
+
+  public Fixtures(File dir) {
+    this.dir = dir;
+  }
+
+  /**
+   * Writes the bytecode for the source to out, compiling it with luac only
+   * if there is no fixture for it yet.
+   */
+  public void compile(LuaSpec spec, String in, String out) throws IOException {
+    String name = spec.id() + "-" + key(spec, in);
+    File fixture = new File(dir, name + ".luac");
+    File stamp = new File(dir, name + ".version");
+    String version = LuaC.version(spec);
+    if(fixture.exists() && (version == null || version.equals(read(stamp)))) {
+      Files.copy(fixture.toPath(), new File(out).toPath(), StandardCopyOption.REPLACE_EXISTING);
+      return;
+    }
+    LuaC.compile(spec, in, out);
+    dir.mkdirs();
+    store(Files.readAllBytes(new File(out).toPath()), fixture);
+    if(version != null) {
+      store(version.getBytes(StandardCharsets.UTF_8), stamp);
+    }
+  }
+
+  private void store(byte[] bytes, File file) throws IOException {
+    File temp = File.createTempFile(file.getName() + ".", ".tmp", dir);
+    try {
+      Files.write(temp.toPath(), bytes);
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      temp.delete();
+    }
+  }
+
+  private static String read(File file) {
+    try {
+      return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    } catch(IOException e) {
+      return null;
+    }
+  }
+
+  private static String key(LuaSpec spec, String in) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch(NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e.getMessage());
+    }
+    StringBuilder options = new StringBuilder();
+    options.append(spec.id()).append(' ').append(spec.getLuaCName());
+    for(String arg : spec.getArgs()) {
+      options.append(' ').append(arg);
+    }
+    options.append('\n');
+    digest.update(options.toString().getBytes(StandardCharsets.UTF_8));
+    digest.update(Files.readAllBytes(new File(in).toPath()));
+    StringBuilder key = new StringBuilder();
+    for(byte b : digest.digest()) {
+      key.append(Character.forDigit((b >> 4) & 0xF, 16));
+      key.append(Character.forDigit(b & 0xF, 16));
+    }
+    return key.toString();
+  }
+
+}
@@ -0,0 +1,389 @@
+package unluac.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import unluac.Configuration;
+import unluac.assemble.Assembler;
+import unluac.assemble.AssemblerException;
+
+/**
+ * Generates large Lua chunks (for 5.0 through 5.4) without a compiler, by
+ * writing an assembler listing and assembling it. The code is shaped like
+ * luac output: every register is a named local, conditionals are comparisons
+ * guarding forward jumps, and closures capture one of their parent's locals.
+ * The same parameters and seed always give the same chunk.
+ */
+public class Generator {
+
+  /** Lua version of the chunk, from "5.0" to "5.4". */
+  public String version = "5.1";
+  /** Seed for every random choice. */
+  public long seed = 1;
+  /** Instructions in each function, not counting its children. */
+  public int size = 1000;
+  /** Levels of closures below the main function. */
+  public int depth = 1;
+  /** Closures created by each function above the deepest level. */
+  public int fanout = 2;
+  /** Percentage of statements that are conditionals. */
+  public int branches = 20;
+  /** Locals (and so registers) in each function. */
+  public int registers = 8;
+  /** Constants in each function. */
+  public int constants = 16;
+
+  private static final int MAX_IF_DEPTH = 8;
+  private static final int MAX_RK = 256;
+
+  // arithmetic metamethod events, for 5.4's mmbin
+  private static final int TM_ADD = 6;
+
+  private Random random;
+  private int line;
+  private int instructions;
+  private int lua;
+
+  private class Function {
+
+    final String path;
+    final Function parent;
+    final int level;
+    final int params;
+    final StringBuilder code = new StringBuilder();
+    final List<Function> children = new ArrayList<Function>();
+    int pc;
+    int labels;
+    int linedefined;
+    int lastlinedefined;
+    int captured = -1;
+
+    Function(String path, Function parent) {
+      this.path = path;
+      this.parent = parent;
+      this.level = parent == null ? 0 : parent.level + 1;
+      this.params = parent == null ? 0 : Math.min(2, registers);
+    }
+
+    void op(String op, String operands) {
+      code.append(".line\t").append(line).append('\t').append(op).append('\t').append(operands).append('\n');
+      pc++;
+      instructions++;
+    }
+
+    String label() {
+      return "l" + labels++;
+    }
+
+    void label(String label) {
+      code.append(".label\t").append(label).append('\n');
+    }
+
+  }
+
+  /**
+   * Returns the generated listing, in the syntax produced by --disassemble.
+   */
+  public String generate() {
+    if(size < 4 || registers < 2 || registers > 200 || constants < 1 || depth < 0 || fanout < 0 || branches < 0 || branches > 100) {
+      throw new IllegalStateException("bad generator parameters");
+    }
+    if(!version.matches("5\\.[0-4]")) {
+      throw new IllegalStateException("unsupported version: " + version);
+    }
+    lua = version.charAt(2) - '0';
+    random = new Random(seed);
+    line = 0;
+    instructions = 0;
+    Function main = new Function("main", null);
+    body(main);
+    StringBuilder out = new StringBuilder();
+    out.append(".version\t").append(version).append("\n\n");
+    if(lua >= 1) {
+      out.append(".format\t0\n");
+    }
+    out.append(".endianness\tLITTLE\n");
+    if(lua <= 3) {
+      out.append(".int_size\t4\n");
+      out.append(".size_t_size\t8\n");
+    }
+    out.append(".instruction_size\t4\n");
+    if(lua == 0) {
+      out.append(".size_op\t6\n");
+      out.append(".size_a\t8\n");
+      out.append(".size_b\t9\n");
+      out.append(".size_c\t9\n");
+    }
+    if(lua <= 2) {
+      out.append(".number_format\tfloat\t8\n\n");
+    } else {
+      out.append(".integer_format\t8\n");
+      out.append(".float_format\t8\n\n");
+    }
+    write(out, main);
+    return out.toString();
+  }
+
+  /**
+   * Returns the total number of instructions in the last generated chunk.
+   */
+  public int getInstructionCount() {
+    return instructions;
+  }
+
+  /**
+   * Generates the chunk and assembles it into bytecode.
+   */
+  public byte[] assemble() throws IOException, AssemblerException {
+    byte[] listing = generate().getBytes(StandardCharsets.ISO_8859_1);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new Assembler(new Configuration(), new ByteArrayInputStream(listing), out).assemble();
+    return out.toByteArray();
+  }
+
+  private void body(Function f) {
+    f.linedefined = f.parent == null ? 0 : ++line;
+    line++;
+    if(lua == 4 && f.parent == null) {
+      f.op("varargprep", "0");
+    }
+    for(int r = f.params; r < registers; r++) {
+      f.op("loadk", "r" + r + " k" + (r % constants));
+    }
+    int closures = f.level < depth ? fanout : 0;
+    int remaining = Math.max(size - f.pc - 1 - 2 * closures, 1);
+    int every = closures > 0 ? Math.max(remaining / closures, 1) : 0;
+    int next = every;
+    int start = f.pc;
+    while(f.pc - start < remaining || closures > 0) {
+      if(closures > 0 && f.pc - start >= next) {
+        closure(f);
+        closures--;
+        next += every;
+      } else {
+        statement(f, 0, remaining - (f.pc - start));
+      }
+    }
+    f.lastlinedefined = f.parent == null ? 0 : ++line;
+    if(lua == 4) {
+      f.op("return", "r0 1 " + (f.parent == null ? 1 : 0) + " 0");
+    } else {
+      f.op("return", "r0 1");
+    }
+  }
+
+  private void statement(Function f, int nesting, int budget) {
+    line++;
+    int choice = random.nextInt(100);
+    if(choice < branches && nesting < MAX_IF_DEPTH && budget >= 3) {
+      conditional(f, nesting, budget);
+    } else if(f.captured >= 0 && choice < branches + 5) {
+      if(random.nextBoolean()) {
+        f.op("getupval", register() + " u0");
+      } else {
+        f.op("setupval", register() + " u0");
+      }
+    } else if(choice < branches + 20) {
+      f.op("loadk", register() + " k" + random.nextInt(constants));
+    } else if(choice < branches + 30) {
+      int a = random.nextInt(registers);
+      int b = (a + 1 + random.nextInt(registers - 1)) % registers;
+      f.op("move", "r" + a + " r" + b);
+    } else {
+      int op = random.nextInt(3);
+      arithmetic(f, op, register(), register(), rk(true));
+    }
+  }
+
+  private void arithmetic(Function f, int op, String a, String b, String c) {
+    String[] ops = {"add", "sub", "mul"};
+    if(lua < 4) {
+      f.op(ops[op], a + " " + b + " " + c);
+    } else if(c.startsWith("k")) {
+      // 5.4 has no RK operands: constants get their own opcodes
+      f.op(ops[op] + "k", a + " " + b + " " + c);
+      f.op("mmbink", b + " " + c + " " + (TM_ADD + op) + " 0");
+    } else {
+      f.op(ops[op], a + " " + b + " " + c);
+      f.op("mmbin", b + " " + c + " " + (TM_ADD + op));
+    }
+  }
+
+  private void jump(Function f, String label) {
+    f.op("jmp", lua == 2 || lua == 3 ? "0 " + label : label);
+  }
+
+  private void conditional(Function f, int nesting, int budget) {
+    String[] ops = {"eq", "lt", "le"};
+    String op = ops[random.nextInt(ops.length)];
+    String b = register();
+    String c = rk(false);
+    if(lua < 4) {
+      f.op(op, "0 " + b + " " + c);
+    } else if(!c.startsWith("k")) {
+      f.op(op, b + " " + c + " 0 0");
+    } else if(op.equals("eq")) {
+      f.op("eqk", b + " " + c + " 0 0");
+    } else {
+      // only equality takes a constant in 5.4
+      f.op(op, b + " " + register() + " 0 0");
+    }
+    String skip = f.label();
+    jump(f, skip);
+    budget -= 2;
+    boolean hasElse = budget >= 3 && random.nextBoolean();
+    int then = hasElse ? budget / 2 : budget;
+    block(f, nesting + 1, then);
+    if(hasElse) {
+      String end = f.label();
+      jump(f, end);
+      f.label(skip);
+      block(f, nesting + 1, budget - then - 1);
+      f.label(end);
+    } else {
+      f.label(skip);
+    }
+  }
+
+  private void block(Function f, int nesting, int budget) {
+    int statements = 1 + random.nextInt(4);
+    int start = f.pc;
+    for(int i = 0; i < statements && (i == 0 || f.pc - start < budget); i++) {
+      statement(f, nesting, Math.max(budget - (f.pc - start), 1));
+    }
+  }
+
+  private void closure(Function f) {
+    int index = f.children.size();
+    Function child = new Function(f.path + "/f" + index, f);
+    child.captured = random.nextInt(registers);
+    f.children.add(child);
+    body(child);
+    line = child.lastlinedefined;
+    int a = random.nextInt(registers);
+    f.op("closure", "r" + a + " f" + index);
+    if(lua <= 1) {
+      // before 5.2, upvalues are given by pseudo-instructions after the closure
+      f.op("move", "r0 r" + child.captured);
+    }
+  }
+
+  private String register() {
+    return "r" + random.nextInt(registers);
+  }
+
+  private String rk(boolean number) {
+    int limit = Math.min(constants, MAX_RK);
+    if(random.nextBoolean()) {
+      return register();
+    } else if(number) {
+      // even constants are numbers
+      return "k" + 2 * random.nextInt((limit + 1) / 2);
+    } else {
+      return "k" + random.nextInt(limit);
+    }
+  }
+
+  private void write(StringBuilder out, Function f) {
+    out.append(".function\t").append(f.path).append("\n\n");
+    out.append(".source\t").append(f.parent == null ? "\"=generated\"" : "null").append('\n');
+    out.append(".linedefined\t").append(f.linedefined).append('\n');
+    if(lua >= 1) {
+      out.append(".lastlinedefined\t").append(f.lastlinedefined).append('\n');
+    }
+    out.append(".numparams\t").append(f.params).append('\n');
+    int vararg = 0;
+    if(f.parent == null) {
+      vararg = lua == 0 ? 0 : lua == 1 ? 2 : 1;
+    }
+    out.append(".is_vararg\t").append(vararg).append('\n');
+    out.append(".maxstacksize\t").append(registers).append("\n\n");
+    for(int r = 0; r < registers; r++) {
+      int begin = r < f.params ? 0 : r - f.params + 1;
+      out.append(".local\t\"").append(local(f, r)).append("\"\t").append(begin).append('\t').append(f.pc - 1).append('\n');
+    }
+    out.append('\n');
+    if(lua >= 2 && f.parent == null) {
+      out.append(".upvalue\t\"_ENV\"\t0\ttrue\n\n");
+    } else if(lua >= 2 && f.captured >= 0) {
+      out.append(".upvalue\t\"").append(local(f.parent, f.captured)).append("\"\t").append(f.captured).append("\ttrue\n\n");
+    } else if(f.captured >= 0) {
+      out.append(".upvalue\t\"").append(local(f.parent, f.captured)).append("\"\t0\tfalse\n\n");
+    }
+    for(int k = 0; k < constants; k++) {
+      out.append(".constant\tk").append(k).append('\t');
+      if(k % 2 == 0) {
+        out.append(k);
+      } else {
+        out.append("\"s").append(k).append('"');
+      }
+      out.append('\n');
+    }
+    out.append('\n');
+    out.append(f.code);
+    out.append('\n');
+    for(Function child : f.children) {
+      write(out, child);
+    }
+  }
+
+  private static String local(Function f, int r) {
+    return "v" + f.level + "_" + r;
+  }
+
+  public static void main(String[] args) throws IOException, AssemblerException {
+    Generator generator = new Generator();
+    boolean listing = false;
+    String out = null;
+    for(int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if(arg.equals("--listing")) {
+        listing = true;
+      } else if(arg.startsWith("--") && i + 1 < args.length) {
+        String value = args[++i];
+        if(arg.equals("--lua")) {
+          generator.version = value;
+        } else if(arg.equals("--seed")) {
+          generator.seed = Long.parseLong(value);
+        } else if(arg.equals("--size")) {
+          generator.size = Integer.parseInt(value);
+        } else if(arg.equals("--depth")) {
+          generator.depth = Integer.parseInt(value);
+        } else if(arg.equals("--fanout")) {
+          generator.fanout = Integer.parseInt(value);
+        } else if(arg.equals("--branches")) {
+          generator.branches = Integer.parseInt(value);
+        } else if(arg.equals("--registers")) {
+          generator.registers = Integer.parseInt(value);
+        } else if(arg.equals("--constants")) {
+          generator.constants = Integer.parseInt(value);
+        } else {
+          out = null;
+          break;
+        }
+      } else if(out == null && !arg.startsWith("-")) {
+        out = arg;
+      } else {
+        out = null;
+        break;
+      }
+    }
+    if(out == null) {
+      System.err.println("usage: Generator [--lua 5.x] [--seed n] [--size n] [--depth n] [--fanout n] [--branches percent] [--registers n] [--constants n] [--listing] <output>");
+      System.exit(1);
+    }
+    byte[] bytes = listing ? generator.generate().getBytes(StandardCharsets.ISO_8859_1) : generator.assemble();
+    OutputStream stream = new FileOutputStream(out);
+    stream.write(bytes);
+    stream.close();
+    System.out.println(generator.getInstructionCount() + " instructions");
+  }
+
+}
@@ -3,15 +3,67 @@ package unluac.test;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class LuaC {
 
-  public static void compile(LuaSpec spec, String in, String out) throws IOException {
+  // each value holds the version, or null if that luac can't be run
+  private static final Map<String, String[]> versions = new ConcurrentHashMap<String, String[]>();
+  
+  /**
+   * Returns true if the luac for the spec can be run at all.
+   */
+  public static boolean isAvailable(LuaSpec spec) {
+    return version(spec) != null;
+  }
+  
+  /**
+   * Returns what the luac for the spec prints for -v, or null if it can't
+   * be run.
+   */
+  public static String version(LuaSpec spec) {
+    String luac = command(spec);
+    String[] result = versions.get(luac);
+    if(result == null) {
+      result = new String[1];
+      try {
+        Process p = new ProcessBuilder(luac, "-v").redirectErrorStream(true).start();
+        BufferedReader r = new BufferedReader(new InputStreamReader(p.getInputStream()));
+        StringBuilder b = new StringBuilder();
+        String line;
+        while((line = r.readLine()) != null) {
+          b.append(line).append('\n');
+        }
+        r.close();
+        p.waitFor();
+        result[0] = b.toString();
+      } catch(IOException e) {
+        result[0] = null;
+      } catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return "";
+      }
+      versions.put(luac, result);
+    }
+    return result[0];
+  }
+  
+  /**
+   * The luac that will be run for the spec, after any override by system
+   * property.
+   */
+  private static String command(LuaSpec spec) {
     String luac = spec.getLuaCName();
     luac = System.getProperty(luac, luac);
     if(System.getProperty("os.name").contains("Windows")) {
       luac = luac + ".exe";
     }
+    return luac;
+  }
+  
+  public static void compile(LuaSpec spec, String in, String out) throws IOException {
+    String luac = command(spec);
     String[] args = spec.getArgs();
     String[] full = new String[4 + args.length];
     int i = 0;
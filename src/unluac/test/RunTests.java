@@ -1,16 +1,30 @@
 package unluac.test;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import unluac.Configuration;
 
 public class RunTests {
 
   public static void main(String[] args) throws IOException {
-    boolean result = true;
+    int jobs = Runtime.getRuntime().availableProcessors();
+    boolean verify = false;
+    for(int i = 0; i < args.length; i++) {
+      if(args[i].equals("--jobs") && i + 1 < args.length) {
+        jobs = Integer.parseInt(args[++i]);
+      } else if(args[i].equals("--verify")) {
+        verify = true;
+      }
+    }
     TestReport report = new TestReport();
     Configuration config = new Configuration();
     config.strict_scope = true;
+    ExecutorService pool = Executors.newFixedThreadPool(Math.max(jobs, 1));
+    List<TestSuite.Pending> pending = new ArrayList<TestSuite.Pending>();
     for(LuaSpec spec : new LuaSpec[] {
       new LuaSpec(0x50),
       new LuaSpec(0x51),
@@ -20,10 +34,11 @@ public class RunTests {
       new LuaSpec(0x54),
     }) {
       UnluacSpec uspec = new UnluacSpec();
-      System.out.print(spec.id());
-      result = result & TestFiles.suite.run(spec, uspec, report, config);
-      System.out.println();
+      uspec.verify = verify;
+      TestFiles.suite.submit(pool, spec, uspec, config, pending);
     }
+    boolean result = TestSuite.collect(pending, report, System.out);
+    pool.shutdown();
     report.report(System.out);
     if(result) {
       System.exit(0);
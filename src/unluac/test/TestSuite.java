@@ -2,6 +2,14 @@ package unluac.test;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import unluac.Configuration;
 import unluac.Main;
@@ -13,6 +21,7 @@ public class TestSuite {
   private static String compiled = "luac.out";
   private static String decompiled = "unluac.out";
   private static String recompiled = "test.out";
+  private static Fixtures fixtures = new Fixtures(new File("./test/fixtures/"));
   
   private String name;
   private String path;
@@ -33,18 +42,25 @@ public class TestSuite {
     }
   }
   
-  private TestResult test(LuaSpec spec, UnluacSpec uspec, String file, Configuration config) {
+  private TestResult test(LuaSpec spec, UnluacSpec uspec, String file, Configuration config, String dir) {
     try {
-      LuaC.compile(spec, file, working_dir + compiled);
+      fixtures.compile(spec, file, dir + compiled);
     } catch (IOException e) {
       return TestResult.SKIPPED;
     }
+    if(uspec.verify) {
+      return verify(file, dir + compiled, config);
+    }
     try {
-      uspec.run(working_dir + compiled, working_dir + decompiled, config);
+      uspec.run(dir + compiled, dir + decompiled, config);
       if(!uspec.disassemble) {
-        LuaC.compile(spec, working_dir + decompiled, working_dir + recompiled);
+        if(!LuaC.isAvailable(spec)) {
+          // decompiled from a fixture, but nothing to check the result with
+          return TestResult.SKIPPED;
+        }
+        LuaC.compile(spec, dir + decompiled, dir + recompiled);
       } else {
-        Main.assemble(working_dir + decompiled, working_dir + recompiled);
+        Main.assemble(dir + decompiled, dir + recompiled);
       }
       Compare compare;
       if(!uspec.disassemble) {
@@ -52,7 +68,7 @@ public class TestSuite {
       } else {
         compare = new Compare(Compare.Mode.FULL);
       }
-      return compare.bytecode_equal(working_dir + compiled, working_dir + recompiled) ? TestResult.OK : TestResult.FAILED;
+      return compare.bytecode_equal(dir + compiled, dir + recompiled) ? TestResult.OK : TestResult.FAILED;
     } catch (IOException e) {
       return TestResult.FAILED;
     } catch (RuntimeException e) {
@@ -64,12 +80,25 @@ public class TestSuite {
     }
   }
   
-  private TestResult testc(LuaSpec spec, UnluacSpec uspec, String file, Configuration config) {
+  private TestResult verify(String file, String compiled, Configuration config) {
+    List<String> problems;
+    try {
+      problems = new Verifier(config).verify(ByteBuffer.wrap(Files.readAllBytes(new File(compiled).toPath())));
+    } catch(IOException e) {
+      return TestResult.FAILED;
+    }
+    for(String problem : problems) {
+      System.err.println(file + ": " + problem);
+    }
+    return problems.isEmpty() ? TestResult.OK : TestResult.FAILED;
+  }
+  
+  private TestResult testc(LuaSpec spec, UnluacSpec uspec, String file, Configuration config, String dir) {
     try {
-      uspec.run(file, working_dir + decompiled, config);
-      LuaC.compile(spec, working_dir + decompiled, working_dir + recompiled);
+      uspec.run(file, dir + decompiled, config);
+      LuaC.compile(spec, dir + decompiled, dir + recompiled);
       Compare compare = new Compare(Compare.Mode.NORMAL);
-      return compare.bytecode_equal(file, working_dir + recompiled) ? TestResult.OK : TestResult.FAILED;
+      return compare.bytecode_equal(file, dir + recompiled) ? TestResult.OK : TestResult.FAILED;
     } catch(IOException e) {
       return TestResult.FAILED;
     } catch(RuntimeException e) {
@@ -88,24 +117,118 @@ public class TestSuite {
       String name = testfile.name;
       if(spec.compatible(name)) {
         Configuration config = configure(testfile, base);
-        TestResult result = test(spec, uspec, path + name + ext, config);
+        TestResult result = test(spec, uspec, path + name + ext, config, working_dir);
         report.result(testName(spec, name), result);
-        switch(result) {
-          case OK:
-            System.out.print(".");
-            break;
-          case SKIPPED:
-            System.out.print(",");
-            break;
-          default:
-            System.out.print("!");
-            failed++;
+        mark(System.out, result);
+        if(result == TestResult.FAILED) {
+          failed++;
         }
       }
     }
     return failed == 0;
   }
   
+  /**
+   * A test queued on a pool by submit.
+   */
+  public static class Pending {
+    
+    public final LuaSpec spec;
+    public final String name;
+    public final Future<TestResult> result;
+    
+    Pending(LuaSpec spec, String name, Future<TestResult> result) {
+      this.spec = spec;
+      this.name = name;
+      this.result = result;
+    }
+    
+  }
+  
+  /**
+   * Queues every test compatible with the spec on the pool. Each test works
+   * in its own scratch directory under the working directory, so any number
+   * can run at once; collect reports them in the order they were queued.
+   */
+  public void submit(ExecutorService pool, final LuaSpec spec, final UnluacSpec uspec, Configuration base, List<Pending> pending) {
+    final File working = new File(working_dir);
+    working.mkdirs();
+    for(TestFile testfile : files) {
+      String name = testfile.name;
+      if(spec.compatible(name)) {
+        final Configuration config = configure(testfile, base);
+        final String file = path + name + ext;
+        Future<TestResult> result = pool.submit(new Callable<TestResult>() {
+          
+          @Override
+          public TestResult call() throws IOException {
+            File scratch = Files.createTempDirectory(working.toPath(), spec.id() + "-").toFile();
+            try {
+              return test(spec, uspec, file, config, scratch.getPath() + File.separator);
+            } finally {
+              new File(scratch, compiled).delete();
+              new File(scratch, decompiled).delete();
+              new File(scratch, recompiled).delete();
+              scratch.delete();
+            }
+          }
+          
+        });
+        pending.add(new Pending(spec, testName(spec, name), result));
+      }
+    }
+  }
+  
+  /**
+   * Waits for the queued tests and reports them in order, printing the same
+   * progress line per spec as run does. Returns true if none failed.
+   */
+  public static boolean collect(List<Pending> pending, TestReport report, PrintStream out) {
+    boolean passed = true;
+    LuaSpec current = null;
+    for(Pending test : pending) {
+      if(test.spec != current) {
+        if(current != null) {
+          out.println();
+        }
+        current = test.spec;
+        out.print(current.id());
+      }
+      TestResult result;
+      try {
+        result = test.result.get();
+      } catch(ExecutionException e) {
+        e.getCause().printStackTrace();
+        result = TestResult.FAILED;
+      } catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+        result = TestResult.FAILED;
+      }
+      report.result(test.name, result);
+      mark(out, result);
+      if(result == TestResult.FAILED) {
+        passed = false;
+      }
+    }
+    if(current != null) {
+      out.println();
+    }
+    return passed;
+  }
+  
+  private static void mark(PrintStream out, TestResult result) {
+    switch(result) {
+      case OK:
+        out.print(".");
+        break;
+      case SKIPPED:
+        out.print(",");
+        break;
+      default:
+        out.print("!");
+    }
+  }
+  
   public boolean run(LuaSpec spec, UnluacSpec uspec, String file, boolean compiled, Configuration config) throws IOException {
     int passed = 0;
     int skipped = 0;
@@ -124,9 +247,9 @@ public class TestSuite {
       }
       TestResult result;
       if(!compiled) {
-        result = test(spec, uspec, full, config);
+        result = test(spec, uspec, full, config, working_dir);
       } else {
-        result = testc(spec, uspec, full, config);
+        result = testc(spec, uspec, full, config, working_dir);
       }
       switch(result) {
         case OK:
@@ -9,6 +9,7 @@ public class UnluacSpec {
   
   public UnluacSpec() {
     disassemble = false;
+    verify = false;
   }
   
   public void run(String in, String out, Configuration config) throws IOException {
@@ -21,4 +22,10 @@ public class UnluacSpec {
   
   public boolean disassemble;
   
+  /**
+   * Check the decompiled output in-process with Verifier instead of
+   * recompiling it with luac.
+   */
+  public boolean verify;
+  
 }
@@ -0,0 +1,282 @@
+package unluac.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+
+import unluac.Configuration;
+import unluac.Main;
+import unluac.decompile.Code;
+import unluac.decompile.CodeExtract;
+import unluac.decompile.Decompiler;
+import unluac.decompile.Op;
+import unluac.decompile.OperandFormat;
+import unluac.decompile.OutputProvider;
+import unluac.decompile.Walker;
+import unluac.decompile.block.ForBlock;
+import unluac.decompile.block.TForBlock;
+import unluac.decompile.expression.ClosureExpression;
+import unluac.decompile.expression.ConstantExpression;
+import unluac.decompile.expression.Expression;
+import unluac.decompile.expression.FunctionCall;
+import unluac.decompile.statement.Statement;
+import unluac.parse.LFunction;
+
+/**
+ * Checks decompiled output against the bytecode it came from without
+ * recompiling it. For each function, the decompiled tree must have one
+ * closure per CLOSURE instruction, reaching every nested function, one call
+ * per CALL or TAILCALL, and one numeric or generic for loop per FORLOOP or
+ * TFORLOOP. Every constant that an instruction names must appear in the
+ * tree (as a literal, a global name or a table key), and no other constant
+ * may; and the whole chunk must print. This is much weaker than a luac round
+ * trip, but fast and self-contained, so it suits a first pass over a large
+ * corpus.
+ */
+public class Verifier {
+
+  private final Configuration config;
+
+  public Verifier(Configuration config) {
+    this.config = config;
+  }
+
+  /**
+   * Returns a description of each problem found, or an empty list.
+   */
+  public List<String> verify(ByteBuffer chunk) {
+    List<String> problems = new ArrayList<String>();
+    try {
+      LFunction main = Main.buffer_to_function(chunk, config);
+      Decompiler d = new Decompiler(main);
+      Decompiler.State state = d.decompileAll(ForkJoinPool.commonPool());
+      verify(d, state, "main", problems);
+      d.print(state, new OutputProvider() {
+
+        @Override
+        public void print(String s) {}
+
+        @Override
+        public void print(byte b) {}
+
+        @Override
+        public void print(byte[] bytes, int offset, int length) {}
+
+        @Override
+        public void println() {}
+
+        @Override
+        public void flush() {}
+
+      });
+    } catch(RuntimeException e) {
+      problems.add("exception: " + e);
+    } catch(StackOverflowError e) {
+      problems.add("exception: " + e);
+    }
+    return problems;
+  }
+
+  /**
+   * Collects the nodes of interest. A node can be reached more than once (a
+   * call with multiple results may be shared by two argument lists), so
+   * nodes are counted by identity.
+   */
+  private static class Shape extends Walker {
+
+    final List<ClosureExpression> closures = new ArrayList<ClosureExpression>();
+    final Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    final Set<Integer> constants = new TreeSet<Integer>();
+    int calls;
+    int numeric_loops;
+    int generic_loops;
+
+    @Override
+    public void visitStatement(Statement statement) {
+      if(!seen.add(statement)) return;
+      if(statement instanceof ForBlock) {
+        numeric_loops++;
+      } else if(statement instanceof TForBlock) {
+        generic_loops++;
+      }
+    }
+
+    @Override
+    public void visitExpression(Expression expression) {
+      if(!seen.add(expression)) return;
+      if(expression instanceof ClosureExpression) {
+        closures.add((ClosureExpression) expression);
+      } else if(expression instanceof FunctionCall) {
+        calls++;
+      } else if(expression instanceof ConstantExpression) {
+        // global names and table keys are walked as constants too
+        int index = expression.getConstantIndex();
+        if(index >= 0) {
+          constants.add(index);
+        }
+      }
+    }
+
+  }
+
+  private void verify(Decompiler d, Decompiler.State state, String path, List<String> problems) {
+    int closures = 0;
+    int calls = 0;
+    int numeric_loops = 0;
+    int generic_loops = 0;
+    Set<Integer> constants = new TreeSet<Integer>();
+    Code code = d.code;
+    for(int line = 1; line <= code.length; line++) {
+      Op op = code.op(line);
+      if(op == null) continue;
+      if(!code.isUpvalueDeclaration(line)) {
+        constants(code, line, op, constants);
+      }
+      switch(op) {
+        case CLOSURE:
+          closures++;
+          break;
+        case CALL:
+        case TAILCALL:
+        case TAILCALL54:
+          calls++;
+          break;
+        case FORLOOP:
+        case FORLOOP54:
+          numeric_loops++;
+          break;
+        case TFORLOOP:
+        case TFORLOOP52:
+        case TFORLOOP54:
+          generic_loops++;
+          break;
+        default:
+          break;
+      }
+    }
+    Shape shape = new Shape();
+    d.walk(state, shape);
+    check(path, "closures", closures, shape.closures.size(), problems);
+    check(path, "calls", calls, shape.calls, problems);
+    check(path, "numeric for loops", numeric_loops, shape.numeric_loops, problems);
+    check(path, "generic for loops", generic_loops, shape.generic_loops, problems);
+    for(int index : constants) {
+      if(!shape.constants.contains(index)) {
+        problems.add(path + ": constant k" + index + " missing from output");
+      }
+    }
+    for(int index : shape.constants) {
+      if(!constants.contains(index)) {
+        problems.add(path + ": constant k" + index + " in output but not in bytecode");
+      }
+    }
+    LFunction function = d.function;
+    boolean[] reached = new boolean[function.functions.length];
+    for(ClosureExpression closure : shape.closures) {
+      LFunction child = closure.getFunction();
+      int index = Arrays.asList(function.functions).indexOf(child);
+      if(index < 0) {
+        problems.add(path + ": closure of a function that is not nested in it");
+      } else if(!reached[index]) {
+        reached[index] = true;
+        Decompiler c = d.getChild(child, closure.closureUpvalueLine());
+        verify(c, c.getResult(), path + "/f" + index, problems);
+      }
+    }
+    for(int i = 0; i < reached.length; i++) {
+      if(!reached[i]) {
+        problems.add(path + "/f" + i + ": missing from output");
+      }
+    }
+  }
+
+  /**
+   * Adds the index of each constant that the instruction at line names.
+   */
+  private static void constants(Code code, int line, Op op, Set<Integer> constants) {
+    CodeExtract ex = code.getExtractor();
+    if(op == Op.LOADKX) {
+      // the index is in the EXTRAARG that follows
+      if(line + 1 <= code.length && code.op(line + 1) == Op.EXTRAARG) {
+        constants.add(code.Ax(line + 1));
+      }
+      return;
+    }
+    for(OperandFormat operand : op.operands) {
+      int x;
+      switch(operand.field) {
+        case B: x = code.B(line); break;
+        case C: x = code.C(line); break;
+        case Bx: x = code.Bx(line); break;
+        default: continue;
+      }
+      switch(operand.format) {
+        case CONSTANT:
+        case CONSTANT_INTEGER:
+        case CONSTANT_STRING:
+          constants.add(x);
+          break;
+        case REGISTER_K:
+          if(ex.is_k(x)) {
+            constants.add(ex.get_k(x));
+          }
+          break;
+        case REGISTER_K54:
+          if(code.k(line)) {
+            constants.add(x);
+          }
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
+  private static void check(String path, String what, int expected, int actual, List<String> problems) {
+    if(expected != actual) {
+      problems.add(path + ": " + actual + " " + what + " in output, " + expected + " in bytecode");
+    }
+  }
+
+  private static boolean run(Verifier verifier, File file) throws IOException {
+    if(file.isDirectory()) {
+      File[] files = file.listFiles();
+      boolean passed = true;
+      if(files != null) {
+        Arrays.sort(files);
+        for(File child : files) {
+          passed = run(verifier, child) & passed;
+        }
+      }
+      return passed;
+    }
+    List<String> problems = verifier.verify(ByteBuffer.wrap(Files.readAllBytes(file.toPath())));
+    for(String problem : problems) {
+      System.out.println(file.getPath() + ": " + problem);
+    }
+    return problems.isEmpty();
+  }
+
+  public static void main(String[] args) throws IOException {
+    if(args.length == 0) {
+      System.err.println("usage: Verifier <file or directory>...");
+      System.exit(1);
+    }
+    Verifier verifier = new Verifier(new Configuration());
+    boolean passed = true;
+    for(String arg : args) {
+      passed = run(verifier, new File(arg)) & passed;
+    }
+    System.exit(passed ? 0 : 1);
+  }
+
+}